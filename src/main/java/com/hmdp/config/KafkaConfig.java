@@ -1,8 +1,11 @@
 package com.hmdp.config;
 
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
@@ -10,6 +13,7 @@ import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -19,6 +23,24 @@ public class KafkaConfig {
     public static final String SECKILL_ORDER_TOPIC = "seckill_order_topic";
     public static final String CACHE_UPDATE_TOPIC = "cache_update_topic";
     public static final String CACHE_CLEAN_TOPIC = "cache_clean_topic";
+    public static final String LOCAL_CACHE_EVICT_TOPIC = "local_cache_evict_topic";
+    public static final String CACHE_UPDATE_DLT_TOPIC = "cache_update_dlt_topic";
+    public static final String SECKILL_STATE_TOPIC = "seckill_state_topic";
+    public static final String SECKILL_ORDER_DLT_TOPIC = "seckill_order_dlt_topic";
+    public static final String BLOOM_ADD_TOPIC = "bloom_add_topic";
+
+    /**
+     * 节点的固定标识，广播主题的消费组按节点区分，重启后沿用同一个消费组，不会在Broker上堆积孤儿消费组
+     * 默认为 主机名-端口，主机名每次部署都会变化时（如容器）通过hmdp.instance-id指定
+     */
+    @Bean
+    public String kafkaInstanceId(@Value("${hmdp.instance-id:}") String instanceId,
+                                  @Value("${server.port:8080}") int port) {
+        if (StrUtil.isNotBlank(instanceId)) {
+            return instanceId;
+        }
+        return NetUtil.getLocalHostName() + "-" + port;
+    }
 
     // 创建Kafka主题
     @Bean
@@ -51,6 +73,56 @@ public class KafkaConfig {
                 .build();
     }
 
+    // 本地缓存失效广播主题：延迟双删的第二次删除，只失效各节点的本地缓存
+    @Bean
+    public NewTopic localCacheEvictTopic(){
+        return TopicBuilder.name(LOCAL_CACHE_EVICT_TOPIC)
+                .partitions(2)
+                .replicas(1)
+                .config("retention.ms", "3600000") // 1小时
+                .build();
+    }
+
+    // 缓存更新死信主题：重试次数用完的消息，保留用于排查
+    @Bean
+    public NewTopic cacheUpdateDltTopic(){
+        return TopicBuilder.name(CACHE_UPDATE_DLT_TOPIC)
+                .partitions(1)
+                .replicas(1)
+                .config("retention.ms", "604800000") // 7天
+                .build();
+    }
+
+    // 秒杀订单死信主题：重试次数用完的订单，由补偿任务回补Redis库存
+    @Bean
+    public NewTopic seckillOrderDltTopic(){
+        return TopicBuilder.name(SECKILL_ORDER_DLT_TOPIC)
+                .partitions(1)
+                .replicas(1)
+                .config("retention.ms", "604800000") // 7天
+                .build();
+    }
+
+    // 秒杀券状态广播主题：售罄、未开始、已结束
+    @Bean
+    public NewTopic seckillStateTopic(){
+        return TopicBuilder.name(SECKILL_STATE_TOPIC)
+                .partitions(1)
+                .replicas(1)
+                .config("retention.ms", "3600000") // 1小时
+                .build();
+    }
+
+    // 布隆过滤器新增广播主题：各节点写入本地位图镜像
+    @Bean
+    public NewTopic bloomAddTopic(){
+        return TopicBuilder.name(BLOOM_ADD_TOPIC)
+                .partitions(1)
+                .replicas(1)
+                .config("retention.ms", "3600000") // 1小时
+                .build();
+    }
+
     // Kafka消费者配置
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory() {
@@ -62,6 +134,18 @@ public class KafkaConfig {
         return factory;
     }
 
+    // 批量消费：一次拉取的消息作为一批交给监听器，整批处理完后确认一次
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Object> batchKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, Object> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(3);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
     // Kafka消费者工厂
     @Bean
     public ConsumerFactory<String, Object> consumerFactory() {
@@ -70,7 +154,7 @@ public class KafkaConfig {
         props.put(ConsumerConfig.GROUP_ID_CONFIG, "seckill_group");
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.springframework.kafka.support.serializer.JsonDeserializer");
-        props.put("spring.kafka.consumer.properties.spring.json.trusted.packages", "com.hmdp.dto");
+        props.put(JsonDeserializer.TRUSTED_PACKAGES, "com.hmdp.dto");
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
         return new DefaultKafkaConsumerFactory<>(props);
@@ -6,11 +6,14 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.bloom.BloomFilterManager;
 import com.hmdp.utils.constants.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.hmdp.utils.constants.RedisConstants.BLOOM_SHOP_KEY;
+
 @RestController
 @RequestMapping("/shop")
 public class ShopController {
@@ -18,6 +21,9 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
@@ -37,6 +43,8 @@ public class ShopController {
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
         shopService.save(shop);
+        // 写入布隆过滤器
+        bloomFilterManager.add(BLOOM_SHOP_KEY, shop.getId());
         // 返回店铺id
         return Result.ok(shop.getId());
     }
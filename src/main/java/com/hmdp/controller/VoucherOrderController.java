@@ -4,11 +4,14 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.ratelimiter.RateLimiter;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.Resource;
 
@@ -34,4 +37,24 @@ public class VoucherOrderController {
         // return voucherOrderService.seckillVoucher(voucherId);
         return Result.ok("秒杀成功");
     }
+
+    /**
+     * 查询秒杀订单的处理状态
+     * @param orderId 订单ID
+     * @return PENDING：处理中，CREATED：已创建，FAILED：失败，不是当前用户的订单返回订单不存在
+     */
+    @GetMapping("status/{id}")
+    public Result queryOrderStatus(@PathVariable("id") Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
+
+    /**
+     * 等待秒杀订单的处理结果，订单创建或失败时推送一次status事件，超时返回PENDING后客户端重新订阅
+     * 不是当前用户的订单直接推送NOT_FOUND
+     * @param orderId 订单ID
+     */
+    @GetMapping(value = "status/{id}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watchOrderStatus(@PathVariable("id") Long orderId) {
+        return voucherOrderService.watchOrderStatus(orderId);
+    }
 }
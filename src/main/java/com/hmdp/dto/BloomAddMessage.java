@@ -0,0 +1,15 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BloomAddMessage {
+    // 布隆过滤器key
+    private String filterKey;
+    // 新增的id
+    private String id;
+}
@@ -7,6 +7,10 @@ public class SeckillMessage {
     private Long userId;
     private Long voucherId;
     private Long orderId;
+    // 重试次数
+    private Integer retryCount = 0;
+    // 最大重试次数
+    private static final Integer MAX_RETRY_COUNT = 3;
 
     public SeckillMessage(){}
 
@@ -15,4 +19,12 @@ public class SeckillMessage {
         this.voucherId = voucherId;
         this.orderId = orderId;
     }
+
+    public boolean canRetry() {
+        return retryCount < MAX_RETRY_COUNT;
+    }
+
+    public void incrementRetry() {
+        this.retryCount++;
+    }
 }
@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillStateMessage {
+    // 优惠券id
+    private Long voucherId;
+    // 状态：NOT_STARTED、SOLD_OUT、ENDED，为空表示清除
+    private String state;
+    // 状态失效时间（毫秒时间戳）
+    private Long expireAt;
+}
@@ -3,6 +3,9 @@ package com.hmdp.dto;
 import lombok.Data;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
 
 @Data
 public class SeckillStockInfo {
@@ -28,4 +31,19 @@ public class SeckillStockInfo {
         this.beginTime = beginTime;
         this.endTime = endTime;
     }
+
+    /**
+     * Lua脚本使用的HASH结构，字段都是整数，时间为秒级时间戳
+     */
+    public Map<String, String> toHash() {
+        Map<String, String> fields = new HashMap<>(4);
+        fields.put("stock", String.valueOf(stock));
+        fields.put("begin", String.valueOf(epochSecond(beginTime)));
+        fields.put("end", String.valueOf(epochSecond(endTime)));
+        return fields;
+    }
+
+    public static long epochSecond(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
 }
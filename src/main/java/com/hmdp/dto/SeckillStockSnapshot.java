@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 同一条SQL读出的秒杀券库存和订单数，落库时两者在同一个事务中变化，库存+订单数保持不变
+ */
+@Data
+public class SeckillStockSnapshot {
+    private Long voucherId;
+    private Integer stock;
+    private Long orderCount;
+    private LocalDateTime beginTime;
+    private LocalDateTime endTime;
+}
@@ -0,0 +1,58 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键，按主键顺序投递
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 投递的Kafka主题
+     */
+    private String topic;
+
+    /**
+     * 缓存key，作为消息的key
+     */
+    private String cacheKey;
+
+    /**
+     * 消息内容，CacheUpdateMessage的JSON
+     */
+    private String payload;
+
+    /**
+     * 投递失败的次数
+     */
+    private Integer retryCount;
+
+    /**
+     * 下次投递时间，为空时立即投递，失败后按指数退避推迟
+     */
+    private LocalDateTime nextRetryAt;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+
+}
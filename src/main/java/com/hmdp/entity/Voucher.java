@@ -82,6 +82,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 库存分段数，大于1时秒杀库存拆分到多个Redis key
+     */
+    @TableField(exist = false)
+    private Integer segments;
+
     /**
      * 创建时间
      */
@@ -0,0 +1,16 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.CacheOutbox;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+
+
+public interface CacheOutboxMapper extends BaseMapper<CacheOutbox> {
+
+    /**
+     * 复制到死信表
+     */
+    int copyToDead(@Param("ids") Collection<Long> ids);
+}
@@ -1,9 +1,17 @@
 package com.hmdp.mapper;
 
+import com.hmdp.dto.SeckillStockSnapshot;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    List<SeckillStockSnapshot> queryStockSnapshot(@Param("lastId") Long lastId,
+                                                  @Param("now") LocalDateTime now,
+                                                  @Param("limit") int limit);
 }
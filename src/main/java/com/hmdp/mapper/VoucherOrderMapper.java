@@ -2,8 +2,16 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条多行INSERT批量写入订单，订单id或(user_id, voucher_id)重复的订单被忽略
+     * @return 实际写入的订单数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
@@ -0,0 +1,25 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.CacheOutbox;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在调用方的事务中记录一条缓存更新事件
+     */
+    void saveUpdate(String key, Object value, Long expireTime, TimeUnit timeUnit);
+
+    /**
+     * 在调用方的事务中记录一条缓存删除事件
+     */
+    void saveDelete(String key);
+
+    /**
+     * 超过重试次数的事件移动到死信表
+     */
+    void moveToDead(Collection<Long> ids);
+}
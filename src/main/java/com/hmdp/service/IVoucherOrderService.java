@@ -2,17 +2,36 @@ package com.hmdp.service;
 
 import com.hmdp.dto.Result;
 import com.hmdp.dto.SeckillMessage;
-import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Set;
 
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(SeckillMessage message);
+    /**
+     * 创建订单
+     * @return 订单是否已经落库，重复购买时返回false
+     */
+    boolean createVoucherOrder(SeckillMessage message);
+
+    /**
+     * 批量创建订单：一次查询去重，每个优惠券一条扣减库存，一条多行INSERT，在同一个事务中完成
+     * @return 已经落库的订单id
+     */
+    Set<Long> createVoucherOrders(List<SeckillMessage> messages);
+
+    /**
+     * 查询当前用户的秒杀订单的处理状态，其他用户的订单返回订单不存在
+     */
+    Result queryOrderStatus(Long orderId);
 
-    @Transactional
-    void addSeckillVoucher(Voucher voucher);
+    /**
+     * 订阅当前用户的秒杀订单的处理状态，订单落库或失败时推送一次
+     */
+    SseEmitter watchOrderStatus(Long orderId);
 }
@@ -0,0 +1,93 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.CacheUpdateMessage;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存事件发件箱：事件和业务数据在同一个事务中写入，由CacheOutboxRelay异步投递到Kafka
+ * 事务提交后本节点直接更新Redis和本地缓存（删除使用延迟双删），其他节点等待消息
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private CacheManager cacheManager;
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void saveUpdate(String key, Object value, Long expireTime, TimeUnit timeUnit) {
+        CacheUpdateMessage message = new CacheUpdateMessage(
+                CacheUpdateMessage.TYPE_UPDATE, key, value, timeUnit.toSeconds(expireTime), 0
+        );
+        save(KafkaConfig.CACHE_UPDATE_TOPIC, message);
+        afterCommit(() -> cacheManager.updateCache(key, value, expireTime, timeUnit));
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void saveDelete(String key) {
+        CacheUpdateMessage message = new CacheUpdateMessage(
+                CacheUpdateMessage.TYPE_DELETE, key, null, null, 0
+        );
+        save(KafkaConfig.CACHE_CLEAN_TOPIC, message);
+        afterCommit(() -> cacheManager.deleteCacheTwice(key));
+    }
+
+    @Override
+    @Transactional
+    public void moveToDead(Collection<Long> ids) {
+        getBaseMapper().copyToDead(ids);
+        removeByIds(ids);
+    }
+
+    private void save(String topic, CacheUpdateMessage message) {
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            // 事件写不进去，业务数据一起回滚
+            throw new RuntimeException("缓存事件序列化失败，key: " + message.getCacheKey(), e);
+        }
+        save(new CacheOutbox()
+                .setTopic(topic)
+                .setCacheKey(message.getCacheKey())
+                .setPayload(payload)
+                .setRetryCount(0));
+    }
+
+    /**
+     * 事务提交后执行，失败不影响已提交的事务，发件箱里的消息会再处理一次
+     */
+    private void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                try {
+                    action.run();
+                } catch (Exception e) {
+                    log.error("事务提交后更新缓存失败", e);
+                }
+            }
+        });
+    }
+}
@@ -1,41 +1,36 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.config.KafkaConfig;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.SeckillMessage;
-import com.hmdp.dto.SeckillStockInfo;
-import com.hmdp.entity.SeckillVoucher;
-import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.service.IVoucherService;
-import com.hmdp.utils.CacheManager;
 import com.hmdp.utils.constants.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.seckill.OrderStatusStore;
+import com.hmdp.utils.seckill.OrderStatusWatcher;
+import com.hmdp.utils.seckill.SeckillStateTable;
+import com.hmdp.utils.seckill.SegmentedStock;
+import com.hmdp.utils.seckill.VoucherCacheSynchronizer;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.util.Collections;
-import java.util.concurrent.CompletableFuture;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
@@ -47,17 +42,19 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIdWorker redisIdWorker;
     @Resource
-    private RedissonClient redissonClient;
-    @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private KafkaTemplate<String,Object> kafkaTemplate;
     @Resource
-    private IVoucherService voucherService;
+    private SeckillStateTable seckillStateTable;
+    @Resource
+    private SegmentedStock segmentedStock;
+    @Resource
+    private OrderStatusStore orderStatusStore;
     @Resource
-    private ObjectMapper objectMapper;
+    private OrderStatusWatcher orderStatusWatcher;
     @Resource
-    private CacheManager cacheManager;
+    private VoucherCacheSynchronizer voucherCacheSynchronizer;
 
     // 定义引入Lua脚本
     private static final DefaultRedisScript<Long> ADVANCED_SECKILL_SCRIPT;
@@ -94,15 +91,27 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Override
     public Result seckillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
-
-        // 执行异步lua脚本（包含时间检查）
-        Long result = stringRedisTemplate.execute(
-                ADVANCED_SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        // 已售罄、未开始或已结束的秒杀券直接返回，不再生成订单id和访问Redis
+        String reason = seckillStateTable.rejectReason(voucherId);
+        if (reason != null) {
+            return Result.fail(reason);
+        }
+        // 执行异步lua脚本（包含时间检查），分段库存的秒杀券在用户所属的分段中执行
+        int segments = segmentedStock.segments(voucherId);
+        Long result = segments > 1
+                ? segmentedStock.seckill(voucherId, userId, segments)
+                : stringRedisTemplate.execute(
+                        ADVANCED_SECKILL_SCRIPT,
+                        Collections.emptyList(),
+                        voucherId.toString(), userId.toString());
 
         int r = result.intValue();
+        if (r == 3 && isEnded(voucherId)) {
+            // 秒杀结束一天后库存key已经过期
+            r = 5;
+        }
+        // 记录售罄、未开始、已结束的状态
+        seckillStateTable.record(voucherId, r);
         // 判断结果
         switch (r) {
             case 1:
@@ -116,145 +125,157 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             case 5:
                 return Result.fail("秒杀已经结束");
             default:
-                // 发送消息到kafka
+                // 下单成功才生成订单id，发送消息到kafka
+                long orderId = redisIdWorker.nextId("order");
                 SeckillMessage seckillMessage = new SeckillMessage(userId, voucherId, orderId);
+                // 记录订单所属用户，查询状态时校验
+                orderStatusStore.register(orderId, userId);
                 kafkaTemplate.send(KafkaConfig.SECKILL_ORDER_TOPIC, seckillMessage);
                 // 返回订单id
                 return Result.ok(orderId);
         }
     }
 
+    /**
+     * 库存key不存在时根据不过期的结束时间判断是否已结束，只有结果为3时才访问，结束后由SeckillStateTable在本地拒绝
+     */
+    private boolean isEnded(Long voucherId) {
+        String end = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_END_KEY + voucherId);
+        return end != null && System.currentTimeMillis() / 1000 > Long.parseLong(end);
+    }
+
     @Override
-    public void createVoucherOrder(SeckillMessage message) {
+    @Transactional
+    public boolean createVoucherOrder(SeckillMessage message) {
         Long userId = message.getUserId();
         Long voucherId = message.getVoucherId();
         Long orderId = message.getOrderId();
 
-        // 创建锁对象（使用订单ID作为锁key，避免用户重复下单问题）
-        RLock redisLock = redissonClient.getLock("lock:order:" + orderId);
-        // 尝试获取锁（等待3秒，10秒后自动释放）
-        boolean isLock = false;
-        try {
-            isLock = redisLock.tryLock(3, 10, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            log.error("获取锁失败", e);
-            throw new RuntimeException("系统繁忙，请稍后重试");
+        // 1.先写入订单，订单id主键和(user_id, voucher_id)唯一索引保证幂等，重复消费和重复购买都被忽略
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        int inserted = getBaseMapper().insertIgnoreBatch(Collections.singletonList(voucherOrder));
+        if (inserted == 0) {
+            log.warn("订单已存在或用户已购买过该优惠券，订单ID:{}, 用户ID:{}, 优惠券ID:{}", orderId, userId, voucherId);
+            // 重复消费时订单已经落库，重复购买时订单不会创建
+            return query().eq("id", orderId).count() > 0;
         }
-        if (!isLock) {
-            // 获取锁失败
-            log.error("获取分布式锁失败，订单ID:{}", orderId);
-            throw new RuntimeException("系统繁忙，请稍后重试");
+
+        // 2.扣减数据库库存，库存不足时订单一起回滚
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherId)
+                .gt("stock", 0)
+                .update();
+        if (!success) {
+            log.error("数据库库存不足，优惠券ID:{}", voucherId);
+            throw new RuntimeException("库存不足");
         }
-        try {
-            // 再次检查数据库中是否已存在订单（防止重复消费）
-            int count = query().eq("id", orderId).count();
-            if (count > 0) {
-                log.warn("订单已存在，订单ID:{}", orderId);
-                return;
-            }
 
-            // 查询订单（检查用户是否已购买）
-            count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-            if (count > 0) {
-                log.warn("用户已购买过该优惠券，用户ID:{}, 优惠券ID:{}", userId, voucherId);
-                return;
-            }
+        // 事务提交后标记优惠券，由同步器合并刷新缓存
+        voucherCacheSynchronizer.markDirty(voucherId);
+
+        log.info("秒杀订单创建成功，订单ID:{}", orderId);
+        return true;
+    }
 
-            // 扣减数据库库存
+    @Override
+    @Transactional
+    public Set<Long> createVoucherOrders(List<SeckillMessage> messages) {
+        // 1.批次内去重：同一个订单id或同一个用户和优惠券只保留第一条
+        Map<Long, SeckillMessage> byOrderId = new LinkedHashMap<>(messages.size());
+        Set<String> pairs = new HashSet<>(messages.size());
+        for (SeckillMessage message : messages) {
+            if (!byOrderId.containsKey(message.getOrderId())
+                    && pairs.add(message.getUserId() + ":" + message.getVoucherId())) {
+                byOrderId.put(message.getOrderId(), message);
+            }
+        }
+        Set<Long> created = new HashSet<>(byOrderId.size());
+        if (byOrderId.isEmpty()) {
+            return created;
+        }
+        // 2.一次查询已经存在的订单（重复消费或用户已购买）
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (SeckillMessage message : byOrderId.values()) {
+            userIds.add(message.getUserId());
+            voucherIds.add(message.getVoucherId());
+        }
+        List<VoucherOrder> existing = query()
+                .select("id", "user_id", "voucher_id")
+                .in("id", byOrderId.keySet())
+                .or(w -> w.in("voucher_id", voucherIds).in("user_id", userIds))
+                .list();
+        Set<String> existingPairs = new HashSet<>(existing.size());
+        for (VoucherOrder order : existing) {
+            if (byOrderId.remove(order.getId()) != null) {
+                // 重复消费，订单已经落库
+                created.add(order.getId());
+            }
+            existingPairs.add(order.getUserId() + ":" + order.getVoucherId());
+        }
+        List<VoucherOrder> orders = new ArrayList<>(byOrderId.size());
+        Map<Long, Integer> counts = new HashMap<>();
+        for (SeckillMessage message : byOrderId.values()) {
+            if (existingPairs.contains(message.getUserId() + ":" + message.getVoucherId())) {
+                log.warn("用户已购买过该优惠券，用户ID:{}, 优惠券ID:{}", message.getUserId(), message.getVoucherId());
+                continue;
+            }
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(message.getOrderId());
+            voucherOrder.setUserId(message.getUserId());
+            voucherOrder.setVoucherId(message.getVoucherId());
+            orders.add(voucherOrder);
+            counts.merge(message.getVoucherId(), 1, Integer::sum);
+        }
+        if (orders.isEmpty()) {
+            log.warn("订单均已存在，数量:{}", messages.size());
+            return created;
+        }
+        // 3.每个优惠券一条扣减库存，库存不足时整批回滚
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
             boolean success = seckillVoucherService.update()
-                    .setSql("stock = stock - 1")
-                    .eq("voucher_id", voucherId)
-                    .gt("stock", 0)
+                    .setSql("stock = stock - " + entry.getValue())
+                    .eq("voucher_id", entry.getKey())
+                    .ge("stock", entry.getValue())
                     .update();
             if (!success) {
-                log.error("数据库库存不足，优惠券ID:{}", voucherId);
+                log.error("数据库库存不足，优惠券ID:{}, 数量:{}", entry.getKey(), entry.getValue());
                 throw new RuntimeException("库存不足");
             }
-
-            // 创建订单
-            VoucherOrder voucherOrder = new VoucherOrder();
-            voucherOrder.setId(orderId);
-            voucherOrder.setUserId(userId);
-            voucherOrder.setVoucherId(voucherId);
-            boolean saveResult = save(voucherOrder);
-            if (!saveResult) {
-                log.error("创建订单失败，订单ID:{}", orderId);
-                throw new RuntimeException("订单创建失败");
-            }
-            // 异步更新缓存（发送消息到Kafka），避免阻塞主流程
-            CompletableFuture.runAsync(() -> {
-                try {
-                    // 查询最新的库存信息
-                    SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
-                    if (seckillVoucher != null) {
-                        // 更新库存缓存
-                        SeckillStockInfo stockInfo = new SeckillStockInfo(
-                                seckillVoucher.getStock(),
-                                seckillVoucher.getBeginTime(),
-                                seckillVoucher.getEndTime()
-                        );
-                        cacheManager.updateCacheWithMessage(
-                                RedisConstants.SECKILL_STOCK_KEY + voucherId,
-                                stockInfo,
-                                30L, // 30秒TTL
-                                TimeUnit.MINUTES
-                        );
-
-                        // 更新优惠券信息缓存
-                        Voucher voucher = voucherService.getById(voucherId);
-                        if (voucher != null) {
-                            cacheManager.updateCacheWithMessage(
-                                    "voucher:" + voucherId,
-                                    voucher,
-                                    60L, // 60秒TTL
-                                    TimeUnit.MINUTES
-                            );
-                        }
-                    }
-                } catch (Exception e) {
-                    log.error("异步更新缓存失败，voucherId:{}", voucherId, e);
-                    // 发送缓存清理消息作为兜底
-                    cacheManager.sendCacheCleanMessage(RedisConstants.SECKILL_STOCK_KEY + voucherId);
-                    cacheManager.sendCacheCleanMessage("voucher:" + voucherId);
-                }
-            });
-
-            log.info("秒杀订单创建成功，订单ID:{}", orderId);
-        } finally {
-            // 释放锁
-            if (redisLock.isHeldByCurrentThread()) {
-                redisLock.unlock();
-            }
         }
+        // 4.一条多行INSERT写入订单，和其他批次并发写入同一个用户时由唯一索引忽略，整批回滚后逐条处理
+        int inserted = getBaseMapper().insertIgnoreBatch(orders);
+        if (inserted != orders.size()) {
+            log.warn("批量写入订单时存在重复订单，预期:{}, 实际:{}", orders.size(), inserted);
+            throw new RuntimeException("存在重复订单");
+        }
+        // 5.事务提交后标记优惠券，由同步器合并刷新缓存
+        for (Long voucherId : counts.keySet()) {
+            voucherCacheSynchronizer.markDirty(voucherId);
+        }
+        for (VoucherOrder order : orders) {
+            created.add(order.getId());
+        }
+        log.info("批量创建秒杀订单成功，数量:{}", orders.size());
+        return created;
     }
 
     @Override
-    @Transactional
-    public void addSeckillVoucher(Voucher voucher) {
-        // 保存优惠券
-        voucherService.save(voucher);
-        // 保存秒杀信息
-        SeckillVoucher seckillVoucher = new SeckillVoucher();
-        seckillVoucher.setVoucherId(voucher.getId());
-        seckillVoucher.setStock(voucher.getStock());
-        seckillVoucher.setBeginTime(voucher.getBeginTime());
-        seckillVoucher.setEndTime(voucher.getEndTime());
-        seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存信息到Redis中（包含完整信息）
-        SeckillStockInfo stockInfo = new SeckillStockInfo(
-                voucher.getStock(),
-                voucher.getBeginTime(),
-                voucher.getEndTime()
-        );
-        try {
-            stringRedisTemplate.opsForValue().set(
-                    RedisConstants.SECKILL_STOCK_KEY + voucher.getId(),
-                    objectMapper.writeValueAsString(stockInfo)
-            );
-        } catch (JsonProcessingException e) {
-            log.error("Redis存储秒杀信息失败", e);
-            throw new RuntimeException("Redis存储秒杀信息失败");
+    public Result queryOrderStatus(Long orderId) {
+        OrderStatusStore.Status status = orderStatusStore.get(orderId, UserHolder.getUser().getId());
+        if (status == OrderStatusStore.Status.NOT_FOUND) {
+            return Result.fail("订单不存在");
         }
+        return Result.ok(status.name());
+    }
+
+    @Override
+    public SseEmitter watchOrderStatus(Long orderId) {
+        return orderStatusWatcher.watch(orderId, UserHolder.getUser().getId());
     }
 
 }
@@ -7,13 +7,21 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.seckill.SeckillStateTable;
+import com.hmdp.utils.seckill.SegmentedStock;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
 
+import static com.hmdp.dto.SeckillStockInfo.epochSecond;
+
+import static com.hmdp.utils.constants.RedisConstants.SECKILL_END_KEY;
 import static com.hmdp.utils.constants.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
@@ -27,10 +35,21 @@ import static com.hmdp.utils.constants.RedisConstants.SECKILL_STOCK_KEY;
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
+    private static final DefaultRedisScript<Long> STOCK_INIT_SCRIPT;
+    static {
+        STOCK_INIT_SCRIPT = new DefaultRedisScript<>();
+        STOCK_INIT_SCRIPT.setLocation(new ClassPathResource("seckill_stock_init.lua"));
+        STOCK_INIT_SCRIPT.setResultType(Long.class);
+    }
+
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillStateTable seckillStateTable;
+    @Resource
+    private SegmentedStock segmentedStock;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -52,7 +71,22 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        if (voucher.getSegments() != null && voucher.getSegments() > 1) {
+            // 库存拆分到多个分段
+            segmentedStock.init(voucher.getId(), voucher.getStock(),
+                    voucher.getBeginTime(), voucher.getEndTime(), voucher.getSegments());
+        } else {
+            // 保存秒杀库存信息到Redis中，和预热使用同一个脚本，库存key在秒杀结束时过期
+            stringRedisTemplate.execute(STOCK_INIT_SCRIPT,
+                    Collections.singletonList(SECKILL_STOCK_KEY + voucher.getId()),
+                    voucher.getStock().toString(),
+                    String.valueOf(epochSecond(voucher.getBeginTime())),
+                    String.valueOf(epochSecond(voucher.getEndTime())));
+        }
+        // 库存key过期后仍然能判断秒杀已结束
+        stringRedisTemplate.opsForValue().set(SECKILL_END_KEY + voucher.getId(),
+                String.valueOf(epochSecond(voucher.getEndTime())));
+        // 开始之前各节点直接拒绝
+        seckillStateTable.markNotStarted(voucher.getId(), voucher.getBeginTime());
     }
 }
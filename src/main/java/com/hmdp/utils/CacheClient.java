@@ -1,21 +1,32 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.utils.bloom.BloomFilterManager;
+import com.hmdp.utils.cache.CacheMetrics;
+import com.hmdp.utils.cache.CacheMetrics.Outcome;
+import com.hmdp.utils.cache.CacheRebuildScheduler;
+import com.hmdp.utils.cache.HotKeyDetector;
+import com.hmdp.utils.cache.LocalCache;
+import com.hmdp.utils.cache.SingleFlight;
+import com.hmdp.utils.codec.CacheSerializer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
 import static com.hmdp.utils.constants.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.constants.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.constants.RedisConstants.LOCK_KEY;
 
 @Slf4j
 @Component
@@ -23,156 +34,606 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheSerializer cacheSerializer;
+
+    private final LocalCache localCache;
+
+    private final BloomFilterManager bloomFilterManager;
+
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics cacheMetrics;
+
+    // 等待同一JVM内其他线程重建结果的最长时间
+    private static final long SINGLE_FLIGHT_TIMEOUT_MILLIS = 3000;
+    // 等待其他节点释放重建锁的最长时间和轮询间隔
+    private static final long LOCK_WAIT_MILLIS = 500;
+    private static final long LOCK_RETRY_INTERVAL_MILLIS = 20;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // TTL随机抖动比例，实际过期时间在[time, time * (1 + ttlJitter)]之间
+    private final double ttlJitter;
+    // 提前刷新系数，越大越早刷新，0表示只在过期后刷新
+    private final double earlyRefreshBeta;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheSerializer cacheSerializer, LocalCache localCache,
+                       BloomFilterManager bloomFilterManager, CacheRebuildScheduler rebuildScheduler,
+                       HotKeyDetector hotKeyDetector, CacheMetrics cacheMetrics,
+                       @Value("${hmdp.cache.ttl-jitter:0.1}") double ttlJitter,
+                       @Value("${hmdp.cache.early-refresh-beta:1.0}") double earlyRefreshBeta) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.cacheSerializer = cacheSerializer;
+        this.localCache = localCache;
+        this.bloomFilterManager = bloomFilterManager;
+        this.rebuildScheduler = rebuildScheduler;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        // 热点key优先重建
+        rebuildScheduler.setHotKeyPredicate(hotKeyDetector::isHot);
+        this.ttlJitter = Math.max(ttlJitter, 0);
+        this.earlyRefreshBeta = Math.max(earlyRefreshBeta, 0);
+    }
+
+    /**
+     * 为指定前缀开启本地一级缓存，查询时先查本地再查Redis
+     * 失效通过CacheManager发送的Kafka消息广播到所有节点
+     */
+    public void enableLocalCache(String keyPrefix, long maximumSize, long ttl, TimeUnit unit) {
+        localCache.register(keyPrefix, maximumSize, ttl, unit);
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byteRedisTemplate.opsForValue().set(
+                key, serialize(key, value), jitterSeconds(unit.toSeconds(time)), TimeUnit.SECONDS);
+    }
+
+    /**
+     * 序列化并记录大小
+     */
+    private byte[] serialize(String key, Object value) {
+        byte[] bytes = cacheSerializer.serialize(key, value);
+        cacheMetrics.valueSize(CacheMetrics.prefixOf(key), bytes.length);
+        return bytes;
+    }
+
+    private static Outcome localOutcome(Object local) {
+        return local == LocalCache.NULL_VALUE ? Outcome.NULL_HIT : Outcome.LOCAL_HIT;
+    }
+
+    /**
+     * 查询本地缓存，同时记录访问次数用于热点探测
+     * 先查前缀对应的一级缓存，再查热点key副本
+     * @return 未命中返回null，命中空值返回{@link LocalCache#NULL_VALUE}
+     */
+    private Object getLocal(String keyPrefix, String key) {
+        hotKeyDetector.record(key);
+        Object local = localCache.get(keyPrefix, key);
+        return local != null ? local : localCache.getHot(key);
+    }
+
+    /**
+     * 写入本地缓存，热点key同时写入短期副本
+     */
+    private void putLocal(String keyPrefix, String key, Object value) {
+        localCache.put(keyPrefix, key, value);
+        if (hotKeyDetector.isHot(key)) {
+            localCache.putHot(key, value);
+        }
+    }
+
+    /**
+     * 一个pipeline批量写入，每个key的过期时间单独加随机抖动
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long seconds = unit.toSeconds(time);
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.stringCommands().setEx(
+                    key.getBytes(StandardCharsets.UTF_8), jitterSeconds(seconds), serialize(key, value)));
+            return null;
+        });
     }
 
     // 缓存空值
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
+        // 0.先查本地缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, localOutcome(local));
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+        // 0.1.布隆过滤器判断，一定不存在的id直接返回
+        if (!bloomFilterManager.mightContainByPrefix(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, Outcome.BLOOM_REJECT);
+            return null;
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = cacheMetrics.timeRedis(keyPrefix, () -> byteRedisTemplate.opsForValue().get(key));
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        R cached = bytes == null || bytes.length == 0 ? null : cacheSerializer.deserialize(bytes, type);
+        if (cached != null) {
+            // 3.存在，写入本地缓存并返回
+            cacheMetrics.record(keyPrefix, Outcome.HIT);
+            putLocal(keyPrefix, key, cached);
+            return cached;
         }
         // 判断命中的是否是空值
-        if (json != null) {
+        if (bytes != null && bytes.length == 0) {
             // 返回一个错误信息
+            cacheMetrics.record(keyPrefix, Outcome.NULL_HIT);
+            putLocal(keyPrefix, key, null);
             return null;
         }
 
         // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
+        cacheMetrics.record(keyPrefix, Outcome.MISS);
+        R r = cacheMetrics.timeDb(keyPrefix, () -> dbFallback.apply(id));
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            byteRedisTemplate.opsForValue().set(key, CacheSerializer.EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(keyPrefix, key, null);
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
         this.set(key, r, time, unit);
+        putLocal(keyPrefix, key, r);
         return r;
     }
 
+    // 批量查询，缓存空值
+    // 一次MGET查询所有key，未命中的id一次性回源数据库，再用一个pipeline回写Redis
+    // 返回结果按传入id的顺序排列，不存在的id不包含在结果中
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, List<R>> dbFallback,
+            Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return result;
+        }
+        // 0.先查本地缓存，剩余的id经过布隆过滤器后再查Redis
+        List<ID> remainIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = getLocal(keyPrefix, keyPrefix + id);
+            if (local == null) {
+                if (bloomFilterManager.mightContainByPrefix(keyPrefix, id)) {
+                    remainIds.add(id);
+                } else {
+                    cacheMetrics.record(keyPrefix, Outcome.BLOOM_REJECT);
+                }
+            } else {
+                cacheMetrics.record(keyPrefix, localOutcome(local));
+                if (local != LocalCache.NULL_VALUE) {
+                    result.put(id, type.cast(local));
+                }
+            }
+        }
+        if (remainIds.isEmpty()) {
+            return result;
+        }
+        // 1.MGET批量查询Redis
+        List<String> keys = new ArrayList<>(remainIds.size());
+        for (ID id : remainIds) {
+            keys.add(keyPrefix + id);
+        }
+        List<byte[]> values = cacheMetrics.timeRedis(keyPrefix, () -> byteRedisTemplate.opsForValue().multiGet(keys));
+        // 2.区分命中、空值和未命中
+        List<ID> missIds = new ArrayList<>();
+        int hits = 0;
+        int nullHits = 0;
+        for (int i = 0; i < remainIds.size(); i++) {
+            ID id = remainIds.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            R r = bytes == null || bytes.length == 0 ? null : cacheSerializer.deserialize(bytes, type);
+            if (r != null) {
+                hits++;
+                putLocal(keyPrefix, keys.get(i), r);
+                result.put(id, r);
+            } else if (bytes != null && bytes.length == 0) {
+                // 命中空值
+                nullHits++;
+                putLocal(keyPrefix, keys.get(i), null);
+            } else {
+                missIds.add(id);
+            }
+        }
+        cacheMetrics.record(keyPrefix, Outcome.HIT, hits);
+        cacheMetrics.record(keyPrefix, Outcome.NULL_HIT, nullHits);
+        cacheMetrics.record(keyPrefix, Outcome.MISS, missIds.size());
+        if (missIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+        // 3.未命中的id一次性查询数据库
+        List<R> list = cacheMetrics.timeDb(keyPrefix, () -> dbFallback.apply(missIds));
+        Map<String, byte[]> toCache = new HashMap<>(missIds.size());
+        Map<ID, R> loaded = new HashMap<>(missIds.size());
+        if (list != null) {
+            for (R r : list) {
+                loaded.put(idGetter.apply(r), r);
+            }
+        }
+        for (ID id : missIds) {
+            String key = keyPrefix + id;
+            R r = loaded.get(id);
+            // 不存在的id缓存空值
+            toCache.put(key, r == null ? CacheSerializer.EMPTY : serialize(key, r));
+            putLocal(keyPrefix, key, r);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        // 4.一个pipeline批量回写Redis
+        long seconds = unit.toSeconds(time);
+        long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            toCache.forEach((key, value) -> connection.stringCommands().setEx(
+                    key.getBytes(StandardCharsets.UTF_8), value.length == 0 ? nullSeconds : jitterSeconds(seconds), value));
+            return null;
+        });
+        return sortByIds(ids, result);
+    }
+
+    private <R, ID> Map<ID, R> sortByIds(Collection<ID> ids, Map<ID, R> result) {
+        Map<ID, R> sorted = new LinkedHashMap<>(result.size());
+        for (ID id : ids) {
+            R r = result.get(id);
+            if (r != null) {
+                sorted.put(id, r);
+            }
+        }
+        return sorted;
+    }
+
     // 逻辑过期
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    /**
+     * @param rebuildCost 本次从数据库加载的耗时（毫秒），查询时用于计算提前刷新的概率
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long rebuildCost) {
+        // 设置逻辑过期，加上随机抖动，避免同时写入的key同时过期
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(jitterSeconds(unit.toSeconds(time)));
         // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byte[] bytes = cacheSerializer.serializeLogical(key, value, expireTime, rebuildCost);
+        cacheMetrics.valueSize(CacheMetrics.prefixOf(key), bytes.length);
+        byteRedisTemplate.opsForValue().set(key, bytes);
+    }
+
+    /**
+     * 在原有过期时间上随机增加[0, ttlJitter]比例的时间
+     */
+    private long jitterSeconds(long seconds) {
+        long bound = (long) (seconds * ttlJitter);
+        return bound <= 0 ? seconds : seconds + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * 判断是否需要重建（XFetch）：now - rebuildCost * beta * ln(random) >= expireTime
+     * 离过期越近、重建越慢，提前刷新的概率越大；已过期的数据一定重建
+     */
+    private boolean shouldRefresh(RedisData redisData) {
+        if (isExpired(redisData)) {
+            return true;
+        }
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long now = System.currentTimeMillis();
+        Long rebuildCost = redisData.getRebuildCost();
+        if (rebuildCost == null || rebuildCost <= 0 || earlyRefreshBeta <= 0) {
+            return false;
+        }
+        // 1 - nextDouble()取值(0, 1]，避免ln(0)
+        double gap = -rebuildCost * earlyRefreshBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return now + gap >= expireMillis;
+    }
+
+    private boolean isExpired(RedisData redisData) {
+        return !redisData.getExpireTime().isAfter(LocalDateTime.now());
     }
 
     // 逻辑过期查询
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.热点key先查本地副本
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, localOutcome(local));
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+        // 0.1.布隆过滤器判断，一定不存在的id直接返回
+        if (!bloomFilterManager.mightContainByPrefix(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, Outcome.BLOOM_REJECT);
+            return null;
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = cacheMetrics.timeRedis(keyPrefix, () -> byteRedisTemplate.opsForValue().get(key));
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             // 3.不存在，直接返回
+            cacheMetrics.record(keyPrefix, Outcome.MISS);
+            return null;
+        }
+        // 4.命中，反序列化为对象
+        RedisData redisData = cacheSerializer.deserializeLogical(bytes, type);
+        if (redisData == null) {
+            cacheMetrics.record(keyPrefix, Outcome.MISS);
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+        R r = type.cast(redisData.getData());
+        // 5.判断是否过期，快过期时按概率提前重建
+        if (!shouldRefresh(redisData)) {
+            // 5.1.未过期，热点key写入本地副本，直接返回店铺信息
+            cacheMetrics.record(keyPrefix, Outcome.HIT);
+            putLocal(keyPrefix, key, r);
             return r;
         }
-        // 5.2.已过期，需要缓存重建
-        // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
-        if (isLock) {
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+        // 5.2.已过期或提前刷新，需要缓存重建
+        boolean expired = isExpired(redisData);
+        cacheMetrics.record(keyPrefix, expired ? Outcome.STALE : Outcome.HIT);
+        // 6.缓存重建，交给重建调度器，本节点同一个key只会排队一次，队列满时直接返回旧数据
+        rebuildScheduler.submit(key, expired, () -> {
+            // 6.1.获取互斥锁
+            String lockKey = lockKey(keyPrefix, id);
+            if (!tryLock(lockKey)) {
+                // 获取锁失败，可能其他节点正在重建缓存
+                cacheMetrics.lockContention(keyPrefix);
+                log.debug("获取锁失败，可能其他节点正在重建缓存，key: {}", key);
+                return;
+            }
+            try {
+                // 6.2.查询数据库，记录重建耗时
+                long begin = System.currentTimeMillis();
+                R newR = cacheMetrics.timeDb(keyPrefix, () -> dbFallback.apply(id));
+                // 6.3.重建缓存
+                this.setWithLogicalExpire(key, newR, time, unit, System.currentTimeMillis() - begin);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        });
+        // 6.4.返回过期的商铺信息
+        return r;
+    }
+
+    // 批量逻辑过期查询
+    // 一次MGET查询所有key，需要刷新的key合并为一个重建任务，任务中各自抢锁，抢到锁的id一次回源和一个pipeline回写
+    public <R, ID> Map<ID, R> queryBatchWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, List<R>> dbFallback,
+            Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return result;
+        }
+        List<ID> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<String> keys = new ArrayList<>(distinctIds.size());
+        for (ID id : distinctIds) {
+            keys.add(keyPrefix + id);
+        }
+        // 1.MGET批量查询Redis
+        List<byte[]> values = cacheMetrics.timeRedis(keyPrefix, () -> byteRedisTemplate.opsForValue().multiGet(keys));
+        if (values == null) {
+            return result;
+        }
+        // 2.解析数据，收集已过期或需要提前刷新的id
+        Map<String, ID> refreshIds = new LinkedHashMap<>();
+        boolean anyExpired = false;
+        for (int i = 0; i < distinctIds.size(); i++) {
+            byte[] bytes = values.get(i);
+            RedisData redisData = bytes == null || bytes.length == 0
+                    ? null : cacheSerializer.deserializeLogical(bytes, type);
+            if (redisData == null) {
+                // 未预热的数据直接跳过
+                cacheMetrics.record(keyPrefix, Outcome.MISS);
+                continue;
+            }
+            ID id = distinctIds.get(i);
+            result.put(id, type.cast(redisData.getData()));
+            boolean expired = isExpired(redisData);
+            cacheMetrics.record(keyPrefix, expired ? Outcome.STALE : Outcome.HIT);
+            if (shouldRefresh(redisData)) {
+                refreshIds.put(keys.get(i), id);
+                anyExpired |= expired;
+            }
+        }
+        // 3.需要刷新的id合并成一个重建任务，获取到互斥锁的id一次重建
+        if (!refreshIds.isEmpty()) {
+            rebuildScheduler.submitBatch(refreshIds, anyExpired, pendingIds -> {
+                List<ID> lockedIds = new ArrayList<>(pendingIds.size());
+                for (ID id : pendingIds) {
+                    if (tryLock(lockKey(keyPrefix, id))) {
+                        lockedIds.add(id);
+                    } else {
+                        cacheMetrics.lockContention(keyPrefix);
+                    }
+                }
+                if (lockedIds.isEmpty()) {
+                    return;
+                }
                 try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    log.error("缓存重建失败，key: {}", key, e);
+                    long begin = System.currentTimeMillis();
+                    List<R> list = cacheMetrics.timeDb(keyPrefix, () -> dbFallback.apply(lockedIds));
+                    if (list == null || list.isEmpty()) {
+                        // 数据库中已不存在，保留旧数据，等待下次刷新
+                        return;
+                    }
+                    long rebuildCost = System.currentTimeMillis() - begin;
+                    long expireSeconds = unit.toSeconds(time);
+                    byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        for (R r : list) {
+                            String key = keyPrefix + idGetter.apply(r);
+                            LocalDateTime expireTime = LocalDateTime.now().plusSeconds(jitterSeconds(expireSeconds));
+                            byte[] bytes = cacheSerializer.serializeLogical(key, r, expireTime, rebuildCost);
+                            cacheMetrics.valueSize(keyPrefix, bytes.length);
+                            connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), bytes);
+                        }
+                        return null;
+                    });
                 } finally {
-                    // 释放锁
-                    unlock(lockKey);
+                    for (ID id : lockedIds) {
+                        unlock(lockKey(keyPrefix, id));
+                    }
                 }
             });
-        } else {
-            // 获取锁失败，可能其他线程正在重建缓存
-            log.warn("获取锁失败，可能其他线程正在重建缓存，key: {}", key);
         }
-        // 6.4.返回过期的商铺信息
-        return r;
+        // 4.返回（过期的数据也直接返回）
+        return sortByIds(ids, result);
     }
 
     // 互斥锁
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+        // 0.先查本地缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, localOutcome(local));
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
         }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
+        // 0.1.布隆过滤器判断，一定不存在的id直接返回
+        if (!bloomFilterManager.mightContainByPrefix(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, Outcome.BLOOM_REJECT);
             return null;
         }
+        // 1.从redis查询商铺缓存
+        Object cached = getFromRedis(keyPrefix, key, type);
+        if (cached != null) {
+            // 2.命中（包括空值），写入本地缓存并返回
+            cacheMetrics.record(keyPrefix, cached == LocalCache.NULL_VALUE ? Outcome.NULL_HIT : Outcome.HIT);
+            putLocal(keyPrefix, key, cached);
+            if (cached == LocalCache.NULL_VALUE) {
+                return null;
+            }
+            localCache.putStale(key, cached);
+            return type.cast(cached);
+        }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        // 3.未命中，同一个JVM内只有一个线程重建，其他线程等待同一个结果
+        cacheMetrics.record(keyPrefix, Outcome.MISS);
+        Object loaded;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            loaded = singleFlight.execute(key,
+                    () -> loadWithMutex(keyPrefix, key, id, type, dbFallback, time, unit),
+                    SINGLE_FLIGHT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 等待超时，返回旧数据
+            Object stale = localCache.getStale(key);
+            if (stale != null) {
+                cacheMetrics.record(keyPrefix, Outcome.STALE);
+                log.warn("等待缓存重建超时，返回旧数据，key: {}", key);
+                return type.cast(stale);
             }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            log.error("等待缓存重建超时，key: {}", key);
+            throw new RuntimeException("系统繁忙，请稍后重试");
+        }
+        putLocal(keyPrefix, key, loaded);
+        if (loaded == LocalCache.NULL_VALUE) {
+            return null;
+        }
+        localCache.putStale(key, loaded);
+        return type.cast(loaded);
+    }
+
+    /**
+     * 在分布式锁的保护下重建缓存，跨节点只有一个线程查询数据库
+     * 其他节点正在重建时，有限时间内轮询Redis等待结果，超时后返回旧数据，没有旧数据时直接查询数据库
+     * @return 查询结果，不存在时返回{@link LocalCache#NULL_VALUE}
+     */
+    private <R, ID> Object loadWithMutex(
+            String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String lockKey = lockKey(keyPrefix, id);
+        long deadline = System.currentTimeMillis() + LOCK_WAIT_MILLIS;
+        while (true) {
+            // 1.获取互斥锁
+            if (tryLock(lockKey)) {
+                try {
+                    // 2.获取锁成功，再次检查Redis，其他节点可能刚刚完成重建
+                    Object cached = getFromRedis(keyPrefix, key, type);
+                    if (cached != null) {
+                        return cached;
+                    }
+                    // 3.根据id查询数据库并写入Redis
+                    return loadAndCache(keyPrefix, key, id, dbFallback, time, unit);
+                } finally {
+                    // 4.释放锁
+                    unlock(lockKey);
+                }
+            }
+            // 5.获取锁失败，其他节点正在重建，短暂等待后查询Redis
+            cacheMetrics.lockContention(keyPrefix);
+            try {
+                Thread.sleep(LOCK_RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
-        }
-        // 8.返回
+            Object cached = getFromRedis(keyPrefix, key, type);
+            if (cached != null) {
+                return cached;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                break;
+            }
+        }
+        // 6.等待超时，优先返回旧数据
+        Object stale = localCache.getStale(key);
+        if (stale != null) {
+            cacheMetrics.record(keyPrefix, Outcome.STALE);
+            log.warn("等待其他节点重建缓存超时，返回旧数据，key: {}", key);
+            return stale;
+        }
+        log.warn("等待其他节点重建缓存超时，直接查询数据库，key: {}", key);
+        R r = cacheMetrics.timeDb(keyPrefix, () -> dbFallback.apply(id));
+        return r == null ? LocalCache.NULL_VALUE : r;
+    }
+
+    private <R, ID> Object loadAndCache(
+            String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = cacheMetrics.timeDb(keyPrefix, () -> dbFallback.apply(id));
+        if (r == null) {
+            // 将空值写入redis
+            byteRedisTemplate.opsForValue().set(key, CacheSerializer.EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return LocalCache.NULL_VALUE;
+        }
+        this.set(key, r, time, unit);
         return r;
     }
 
+    /**
+     * 查询Redis并反序列化
+     * @return 未命中返回null，命中空值返回{@link LocalCache#NULL_VALUE}
+     */
+    private <R> Object getFromRedis(String keyPrefix, String key, Class<R> type) {
+        byte[] bytes = cacheMetrics.timeRedis(keyPrefix, () -> byteRedisTemplate.opsForValue().get(key));
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length == 0) {
+            return LocalCache.NULL_VALUE;
+        }
+        return cacheSerializer.deserialize(bytes, type);
+    }
+
+    /**
+     * 重建锁的key，按缓存前缀区分，不同业务的同一个id不会互相阻塞
+     */
+    private static String lockKey(String keyPrefix, Object id) {
+        return LOCK_KEY + keyPrefix + id;
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
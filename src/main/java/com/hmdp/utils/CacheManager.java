@@ -1,15 +1,23 @@
 package com.hmdp.utils;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.config.KafkaConfig;
 import com.hmdp.dto.CacheUpdateMessage;
+import com.hmdp.utils.cache.CacheInvalidationScheduler;
+import com.hmdp.utils.cache.CacheMetrics;
+import com.hmdp.utils.cache.LocalCache;
+import com.hmdp.utils.codec.CacheSerializer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -21,21 +29,30 @@ public class CacheManager {
     @Resource
     private KafkaTemplate<String, Object> kafkaTemplate;
     @Resource
-    private ObjectMapper objectMapper;
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+    @Resource
+    private CacheSerializer cacheSerializer;
+    @Resource
+    private LocalCache localCache;
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private CacheInvalidationScheduler cacheInvalidationScheduler;
 
     /**
      * 更新缓存并发送消息到Kafka
      */
     public void updateCacheWithMessage(String key, Object value, Long expireTime, TimeUnit timeUnit) {
         try {
-            // 先更新Redis缓存
-            stringRedisTemplate.opsForValue().set(key, objectMapper.writeValueAsString(value), expireTime, timeUnit);
+            // 先更新Redis缓存，本节点的本地缓存直接失效，其他节点通过消息失效
+            byteRedisTemplate.opsForValue().set(key, serialize(key, value), expireTime, timeUnit);
+            localCache.invalidate(key);
 
             // 发送缓存更新消息
             CacheUpdateMessage message = new CacheUpdateMessage(
                     CacheUpdateMessage.TYPE_UPDATE, key, value, timeUnit.toSeconds(expireTime), 0
             );
-            kafkaTemplate.send(KafkaConfig.CACHE_UPDATE_TOPIC, key, message);
+            send(KafkaConfig.CACHE_UPDATE_TOPIC, key, message);
             log.info("缓存更新消息发送成功，key: {}", key);
         } catch (Exception e) {
             log.error("缓存更新失败，key: {}", key, e);
@@ -49,14 +66,14 @@ public class CacheManager {
      */
     public void deleteCacheWithMessage(String key) {
         try {
-            // 先删除Redis缓存
-            stringRedisTemplate.delete(key);
+            // 延迟双删Redis缓存，本节点的本地缓存直接失效，其他节点通过消息失效
+            cacheInvalidationScheduler.invalidate(key);
 
             // 发送缓存删除消息
             CacheUpdateMessage message = new CacheUpdateMessage(
                     CacheUpdateMessage.TYPE_DELETE, key, null, null, 0
             );
-            kafkaTemplate.send(KafkaConfig.CACHE_CLEAN_TOPIC, key, message);
+            send(KafkaConfig.CACHE_CLEAN_TOPIC, key, message);
             log.info("缓存删除消息发送成功，key: {}", key);
         } catch (Exception e) {
             log.error("缓存删除失败，key: {}", key, e);
@@ -73,7 +90,7 @@ public class CacheManager {
             CacheUpdateMessage message = new CacheUpdateMessage(
                     CacheUpdateMessage.TYPE_DELETE, key, null, null, 0
             );
-            kafkaTemplate.send(KafkaConfig.CACHE_CLEAN_TOPIC, key, message);
+            send(KafkaConfig.CACHE_CLEAN_TOPIC, key, message);
             log.info("缓存清理消息发送成功，key: {}", key);
         } catch (Exception e) {
             log.error("缓存清理消息发送失败，key: {}", key, e);
@@ -85,8 +102,9 @@ public class CacheManager {
      */
     public void updateCache(String key, Object value, Long expireTime, TimeUnit timeUnit) {
         try {
-            stringRedisTemplate.opsForValue().set(key, objectMapper.writeValueAsString(value), expireTime, timeUnit);
-        } catch (JsonProcessingException e) {
+            byteRedisTemplate.opsForValue().set(key, serialize(key, value), expireTime, timeUnit);
+            localCache.invalidate(key);
+        } catch (IllegalArgumentException e) {
             log.error("缓存序列化失败，key: {}", key, e);
         }
     }
@@ -96,5 +114,84 @@ public class CacheManager {
      */
     public void deleteCache(String key) {
         stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 延迟双删：立即删除Redis缓存和本地缓存，延迟后再删除一次，适用于任意前缀的key
+     */
+    public void deleteCacheTwice(String key) {
+        cacheInvalidationScheduler.invalidate(key);
+    }
+
+    /**
+     * 一个pipeline批量执行更新和删除，调用方需要保证每个key只出现一次
+     */
+    public void applyBatch(Collection<CacheUpdateMessage> messages) {
+        // 1.先在pipeline外序列化，序列化失败的消息单独跳过
+        Map<String, byte[]> updates = new HashMap<>(messages.size());
+        for (CacheUpdateMessage message : messages) {
+            if (CacheUpdateMessage.TYPE_UPDATE.equals(message.getType())) {
+                try {
+                    updates.put(message.getCacheKey(), serialize(message.getCacheKey(), message.getCacheValue()));
+                } catch (IllegalArgumentException e) {
+                    log.error("缓存序列化失败，key: {}", message.getCacheKey(), e);
+                }
+            }
+        }
+        // 2.一个pipeline写入Redis
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (CacheUpdateMessage message : messages) {
+                byte[] key = message.getCacheKey().getBytes(StandardCharsets.UTF_8);
+                if (CacheUpdateMessage.TYPE_DELETE.equals(message.getType())) {
+                    connection.keyCommands().del(key);
+                    continue;
+                }
+                byte[] value = updates.get(message.getCacheKey());
+                if (value == null) {
+                    continue;
+                }
+                if (message.getExpireTime() == null) {
+                    connection.stringCommands().set(key, value);
+                } else {
+                    connection.stringCommands().setEx(key, message.getExpireTime(), value);
+                }
+            }
+            return null;
+        });
+        // 3.失效本节点的本地缓存
+        for (CacheUpdateMessage message : messages) {
+            localCache.invalidate(message.getCacheKey());
+        }
+    }
+
+    private byte[] serialize(String key, Object value) {
+        byte[] bytes = cacheSerializer.serialize(key, value);
+        cacheMetrics.valueSize(CacheMetrics.prefixOf(key), bytes.length);
+        return bytes;
+    }
+
+    /**
+     * 发送消息，异步记录发送结果
+     */
+    private void send(String topic, String key, CacheUpdateMessage message) {
+        try {
+            kafkaTemplate.send(topic, key, message).addCallback(
+                    result -> cacheMetrics.publish(topic, true),
+                    ex -> {
+                        cacheMetrics.publish(topic, false);
+                        log.error("缓存消息发送失败，topic: {}, key: {}", topic, key, ex);
+                    });
+        } catch (RuntimeException e) {
+            cacheMetrics.publish(topic, false);
+            throw e;
+        }
+    }
+
+    /**
+     * 只失效本节点的本地缓存
+     */
+    public void evictLocalCache(String key) {
+        localCache.invalidate(key);
     }
 }
\ No newline at end of file
@@ -1,12 +1,27 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局id：时间戳（秒）<< 32 | 当天的序列号
+ * mode=redis：每个id执行一次INCR
+ * mode=segment：一次INCRBY租用一段序列号，在本地用原子计数器发放，用掉80%时异步预取下一段
+ * mode=snowflake：交给SnowflakeIdWorker在本地生成，不访问Redis
+ */
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -17,26 +32,161 @@ public class RedisIdWorker {
      * 序列号的位数
      */
     private static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired(required = false)
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    @Value("${hmdp.id.mode:redis}")
+    private String mode;
+    @Value("${hmdp.id.segment.step:1000}")
+    private long step;
+    @Value("${hmdp.id.segment.lease-timeout-millis:3000}")
+    private long leaseTimeoutMillis;
+
+    /**
+     * 每个业务当前的号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
     public long nextId(String keyPrefix) {
-        // 1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        if (snowflakeIdWorker != null) {
+            return snowflakeIdWorker.nextId(keyPrefix);
+        }
+        // 1.生成时间戳，和本地时间按UTC换算的秒数一致
+        long nowSecond = localEpochSecond();
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
         // 2.生成序列号
-        // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = "segment".equals(mode)
+                ? nextSequence(keyPrefix, Math.floorDiv(nowSecond, 86400))
+                : increment(keyPrefix, Math.floorDiv(nowSecond, 86400), 1);
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * 从本地号段取序列号，号段和日期绑定，跨天后丢弃旧号段，保证同一秒内不会和其他节点重复
+     */
+    private long nextSequence(String keyPrefix, long day) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.day == day) {
+                long seq = segment.cursor.incrementAndGet();
+                if (seq <= segment.max) {
+                    if (seq == segment.prefetchAt) {
+                        prefetch(buffer, keyPrefix, day);
+                    }
+                    return seq;
+                }
+            }
+            switchSegment(buffer, segment, keyPrefix, day);
+        }
+    }
+
+    /**
+     * 当前号段用完，切换到预取的号段，没有预取成功时同步租用
+     */
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, String keyPrefix, long day) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其他线程已经切换
+                return;
+            }
+            Segment next = null;
+            Future<Segment> prefetched = buffer.next;
+            if (prefetched != null) {
+                try {
+                    next = prefetched.get(leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | TimeoutException e) {
+                    log.warn("预取号段失败，同步租用，keyPrefix: {}", keyPrefix, e);
+                }
+                buffer.next = null;
+                buffer.prefetching.set(false);
+            }
+            if (next == null || next.day != day) {
+                next = lease(keyPrefix, day);
+            }
+            buffer.current = next;
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, long day) {
+        if (!buffer.prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            buffer.next = CompletableFuture.supplyAsync(() -> lease(keyPrefix, day), prefetchExecutor);
+        } catch (RejectedExecutionException e) {
+            buffer.prefetching.set(false);
+        }
+    }
+
+    /**
+     * 一次INCRBY租用一段序列号(max - step, max]
+     */
+    private Segment lease(String keyPrefix, long day) {
+        long max = increment(keyPrefix, day, step);
+        return new Segment(day, max - step, max, max - step * 2 / 10);
+    }
+
+    private long increment(String keyPrefix, long day, long delta) {
+        // 当前日期，精确到天
+        String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, delta);
+        if (count == null) {
+            throw new RuntimeException("生成序列号失败");
+        }
+        return count;
+    }
+
+    /**
+     * 本地时间按UTC换算的秒数，避免每次创建LocalDateTime
+     */
+    private static long localEpochSecond() {
+        long millis = System.currentTimeMillis();
+        return (millis + TimeZone.getDefault().getOffset(millis)) / 1000;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private static final class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Future<Segment> next;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+    }
+
+    private static final class Segment {
+        private final long day;
+        private final AtomicLong cursor;
+        private final long max;
+        /**
+         * 发放到这个序列号时预取下一段
+         */
+        private final long prefetchAt;
+
+        private Segment(long day, long start, long max, long prefetchAt) {
+            this.day = day;
+            this.cursor = new AtomicLong(start);
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+        }
+    }
 }
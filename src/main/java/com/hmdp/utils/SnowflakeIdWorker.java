@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.constants.RedisConstants.ID_WORKER_KEY;
+import static com.hmdp.utils.constants.RedisConstants.ID_WORKER_LAST_KEY;
+
+/**
+ * 雪花id：时间戳（秒）<< 32 | 机器id << 22 | 序列号，生成时不访问网络
+ * 1.高32位和RedisIdWorker相同，按时间戳划分的数据（如订单状态）不受影响；同一集群不要混用两种模式
+ * 2.机器id启动时从Redis租用，定时续约；Redis不可用时继续使用已租用的机器id
+ *   续约和释放时记录最后发放的时间戳，重新租用同一个机器id时从max(当前时间, 最后发放的时间戳 + 1)开始，
+ *   节点在同一秒内重启也不会发放重复的id
+ * 3.每个keyPrefix单独计数，同一秒的序列号用完或时钟回拨时借用下一秒，领先时钟太多时拒绝生成
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.id.mode", havingValue = "snowflake")
+public class SnowflakeIdWorker {
+
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 22;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.id.snowflake.lease-seconds:60}")
+    private long leaseSeconds;
+    @Value("${hmdp.id.snowflake.max-ahead-seconds:10}")
+    private long maxAheadSeconds;
+
+    private final String owner = UUID.randomUUID().toString(true);
+    private volatile long workerId = -1;
+    /**
+     * 当前机器id上一个持有者最后发放的时间戳，新的计数从下一秒开始
+     */
+    private volatile long floorSecond;
+
+    /**
+     * 每个业务的 时间戳 << 22 | 序列号
+     */
+    private final Map<String, AtomicLong> states = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        workerId = acquire();
+        log.info("租用机器id成功，workerId: {}", workerId);
+    }
+
+    public long nextId(String keyPrefix) {
+        long worker = workerId;
+        if (worker < 0) {
+            throw new RuntimeException("没有可用的机器id");
+        }
+        AtomicLong state = states.computeIfAbsent(keyPrefix, k -> new AtomicLong(floorState()));
+        while (true) {
+            long current = state.get();
+            long last = current >>> SEQUENCE_BITS;
+            long now = localEpochSecond() - BEGIN_TIMESTAMP;
+            long next;
+            if (now > last) {
+                // 1.进入新的一秒，序列号从0开始
+                next = now << SEQUENCE_BITS;
+            } else if ((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // 2.同一秒或时钟回拨，继续使用上一个时间戳
+                next = current + 1;
+            } else {
+                // 3.序列号用完，借用下一秒
+                next = (last + 1) << SEQUENCE_BITS;
+            }
+            if ((next >>> SEQUENCE_BITS) - now > maxAheadSeconds) {
+                throw new RuntimeException("时钟回拨或id生成过快，领先当前时间超过" + maxAheadSeconds + "秒");
+            }
+            if (state.compareAndSet(current, next)) {
+                return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | worker << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 续约机器id，被其他节点占用时重新租用
+     */
+    @Scheduled(fixedDelayString = "${hmdp.id.snowflake.heartbeat-millis:10000}")
+    public void heartbeat() {
+        try {
+            if (workerId < 0) {
+                workerId = acquire();
+                log.info("重新租用机器id成功，workerId: {}", workerId);
+                return;
+            }
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Arrays.asList(ID_WORKER_KEY + workerId, ID_WORKER_LAST_KEY + workerId),
+                    owner, String.valueOf(leaseSeconds), String.valueOf(lastIssuedSecond()));
+            if (renewed == null || renewed == 0) {
+                // 先停止使用被占用的机器id，租用失败时暂停生成，下次心跳再租用
+                long old = workerId;
+                workerId = -1;
+                workerId = acquire();
+                log.warn("机器id已被其他节点占用，重新租用，workerId: {} -> {}", old, workerId);
+            }
+        } catch (Exception e) {
+            // Redis不可用时继续使用当前机器id，恢复后续约
+            log.error("续约机器id失败，workerId: {}", workerId, e);
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        if (workerId < 0) {
+            return;
+        }
+        try {
+            long last = lastIssuedSecond();
+            if (last > 0) {
+                stringRedisTemplate.opsForValue().set(ID_WORKER_LAST_KEY + workerId, String.valueOf(last), 1, TimeUnit.DAYS);
+            }
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), owner);
+        } catch (Exception e) {
+            log.warn("释放机器id失败，workerId: {}", workerId, e);
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试占用机器id
+     */
+    private long acquire() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, owner, leaseSeconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                String last = stringRedisTemplate.opsForValue().get(ID_WORKER_LAST_KEY + id);
+                raiseFloor(last == null ? 0 : Long.parseLong(last));
+                return id;
+            }
+        }
+        throw new RuntimeException("没有可用的机器id");
+    }
+
+    /**
+     * 所有业务的计数至少从floor的下一秒开始：时间戳为floor、序列号已用完，下一个id使用max(当前时间, floor + 1)
+     */
+    private void raiseFloor(long last) {
+        if (last <= floorSecond) {
+            return;
+        }
+        floorSecond = last;
+        long floor = floorState();
+        for (AtomicLong state : states.values()) {
+            state.accumulateAndGet(floor, Math::max);
+        }
+    }
+
+    private long floorState() {
+        return floorSecond << SEQUENCE_BITS | SEQUENCE_MASK;
+    }
+
+    /**
+     * 所有业务中最后发放的时间戳，还没有发放时为0
+     */
+    private long lastIssuedSecond() {
+        long last = 0;
+        for (AtomicLong state : states.values()) {
+            last = Math.max(last, state.get() >>> SEQUENCE_BITS);
+        }
+        return last;
+    }
+
+    private static long localEpochSecond() {
+        long millis = System.currentTimeMillis();
+        return (millis + TimeZone.getDefault().getOffset(millis)) / 1000;
+    }
+}
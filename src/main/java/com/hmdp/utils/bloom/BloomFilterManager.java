@@ -0,0 +1,213 @@
+package com.hmdp.utils.bloom;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.BloomAddMessage;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.constants.RedisConstants.*;
+
+/**
+ * 管理商铺、笔记、用户id的布隆过滤器，防止缓存穿透
+ * 启动时优先加载Redis中已有的位图，不存在或参数变化时从MySQL分批重建
+ * 判断只查本地镜像，新增的id通过Kafka广播到各节点，并定时重新加载Redis位图兜底丢失的广播
+ */
+@Slf4j
+@Component
+public class BloomFilterManager implements ApplicationRunner {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private KafkaTemplate<String, Object> kafkaTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private UserMapper userMapper;
+
+    @Value("${hmdp.bloom.shop.expected-insertions:1000000}")
+    private long shopExpectedInsertions;
+    @Value("${hmdp.bloom.shop.fpp:0.01}")
+    private double shopFpp;
+    @Value("${hmdp.bloom.blog.expected-insertions:1000000}")
+    private long blogExpectedInsertions;
+    @Value("${hmdp.bloom.blog.fpp:0.01}")
+    private double blogFpp;
+    @Value("${hmdp.bloom.user.expected-insertions:1000000}")
+    private long userExpectedInsertions;
+    @Value("${hmdp.bloom.user.fpp:0.01}")
+    private double userFpp;
+    @Value("${hmdp.bloom.rebuild-lock-seconds:600}")
+    private long rebuildLockSeconds;
+    @Value("${hmdp.bloom.rebuild-wait-seconds:300}")
+    private long rebuildWaitSeconds;
+
+    /**
+     * 过滤器key -> 过滤器
+     */
+    private final Map<String, RedisBloomFilter> filters = new ConcurrentHashMap<>();
+    /**
+     * 缓存key前缀 -> 过滤器，供CacheClient查询前判断
+     */
+    private final Map<String, RedisBloomFilter> prefixFilters = new ConcurrentHashMap<>();
+    /**
+     * 过滤器key -> id加载器
+     */
+    private final Map<String, Function<Long, List<Long>>> idLoaders = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        register(BLOOM_SHOP_KEY, CACHE_SHOP_KEY, shopExpectedInsertions, shopFpp, idLoader(shopMapper));
+        register(BLOOM_BLOG_KEY, null, blogExpectedInsertions, blogFpp, idLoader(blogMapper));
+        register(BLOOM_USER_KEY, CACHE_USER_KEY, userExpectedInsertions, userFpp, idLoader(userMapper));
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        for (RedisBloomFilter filter : filters.values()) {
+            try {
+                if (!filter.loadFromRedis() && !rebuild(filter.getKey())) {
+                    // 其他节点正在重建，等待完成后加载
+                    awaitRebuild(filter);
+                }
+            } catch (Exception e) {
+                // 构建失败时过滤器保持放行状态，不影响正常查询
+                log.error("布隆过滤器初始化失败，key: {}", filter.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 判断id是否可能存在，未注册的过滤器一律放行
+     */
+    public boolean mightContain(String filterKey, Object id) {
+        RedisBloomFilter filter = filters.get(filterKey);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 根据缓存key前缀判断id是否可能存在，前缀没有对应的过滤器时一律放行
+     */
+    public boolean mightContainByPrefix(String keyPrefix, Object id) {
+        RedisBloomFilter filter = prefixFilters.get(keyPrefix);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后写入过滤器，并广播到其他节点的本地镜像
+     */
+    public void add(String filterKey, Object id) {
+        RedisBloomFilter filter = filters.get(filterKey);
+        if (filter == null || id == null) {
+            return;
+        }
+        try {
+            filter.add(id);
+            kafkaTemplate.send(KafkaConfig.BLOOM_ADD_TOPIC, filterKey, new BloomAddMessage(filterKey, id.toString()))
+                    .addCallback(result -> { }, ex -> log.warn("布隆过滤器新增广播失败，key: {}, id: {}", filterKey, id, ex));
+        } catch (Exception e) {
+            log.error("布隆过滤器写入失败，key: {}, id: {}", filterKey, id, e);
+        }
+    }
+
+    /**
+     * 其他节点新增的id写入本地镜像
+     */
+    public void addLocal(String filterKey, Object id) {
+        RedisBloomFilter filter = filters.get(filterKey);
+        if (filter != null) {
+            filter.addLocal(id);
+        }
+    }
+
+    /**
+     * 定时用Redis位图替换本地镜像，补上丢失的广播，未构建完成的过滤器由启动流程负责
+     */
+    @Scheduled(initialDelayString = "${hmdp.bloom.reload-interval-millis:600000}",
+            fixedDelayString = "${hmdp.bloom.reload-interval-millis:600000}")
+    public void reload() {
+        for (RedisBloomFilter filter : filters.values()) {
+            if (!filter.isReady()) {
+                continue;
+            }
+            try {
+                filter.loadFromRedis();
+            } catch (Exception e) {
+                log.error("布隆过滤器重新加载失败，key: {}", filter.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 从MySQL原地重建过滤器，重建期间过滤器正常可用
+     * @return 其他节点正在重建时返回false
+     */
+    public boolean rebuild(String filterKey) {
+        RedisBloomFilter filter = filters.get(filterKey);
+        if (filter == null) {
+            throw new IllegalArgumentException("布隆过滤器不存在：" + filterKey);
+        }
+        return filter.rebuild(idLoaders.get(filterKey), rebuildLockSeconds);
+    }
+
+    /**
+     * 每秒尝试加载一次，超时后过滤器保持放行状态
+     */
+    private void awaitRebuild(RedisBloomFilter filter) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + rebuildWaitSeconds * 1000;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(1000);
+            if (filter.loadFromRedis()) {
+                return;
+            }
+        }
+        log.warn("等待其他节点重建布隆过滤器超时，key: {}", filter.getKey());
+    }
+
+    private void register(String filterKey, String keyPrefix, long expectedInsertions, double fpp,
+                          Function<Long, List<Long>> idLoader) {
+        RedisBloomFilter filter = new RedisBloomFilter(filterKey, expectedInsertions, fpp, stringRedisTemplate);
+        filters.put(filterKey, filter);
+        idLoaders.put(filterKey, idLoader);
+        if (keyPrefix != null) {
+            prefixFilters.put(keyPrefix, filter);
+        }
+    }
+
+    /**
+     * 按主键分批流式读取id，每次只查询id列
+     */
+    private <T> Function<Long, List<Long>> idLoader(BaseMapper<T> mapper) {
+        return lastId -> mapper.selectObjs(new QueryWrapper<T>()
+                        .select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + LOAD_BATCH_SIZE))
+                .stream()
+                .map(id -> ((Number) id).longValue())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,306 @@
+package com.hmdp.utils.bloom;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * 基于Redis位图的布隆过滤器，本地保存一份位图镜像
+ * 判断只查本地镜像，不访问Redis；其他节点新增的数据由BloomFilterManager广播后写入本地镜像，
+ * 重建完成和定时重新加载时用Redis位图替换本地镜像
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    private static final String REBUILD_SUFFIX = ":rebuild";
+    private static final String META_SUFFIX = ":meta";
+    private static final DefaultRedisScript<Long> SWAP_SCRIPT;
+    static {
+        SWAP_SCRIPT = new DefaultRedisScript<>();
+        SWAP_SCRIPT.setLocation(new ClassPathResource("bloom_swap.lua"));
+        SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    private final String key;
+    private final long numBits;
+    private final int numHashes;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地位图镜像，构建完成前为null，此时所有判断都返回true
+     */
+    private volatile BitArray mirror;
+    /**
+     * 重建或重新加载时的新镜像，替换前新增的数据会同时写入
+     */
+    private volatile BitArray pendingMirror;
+    /**
+     * 原地重建期间，新增的数据同时写入Redis临时位图
+     */
+    private volatile boolean rebuilding;
+
+    /**
+     * @param key Redis位图的key
+     * @param expectedInsertions 预计插入的数据量
+     * @param fpp 期望的误判率
+     */
+    public RedisBloomFilter(String key, long expectedInsertions, double fpp, StringRedisTemplate stringRedisTemplate) {
+        this.key = key;
+        this.numBits = optimalNumOfBits(expectedInsertions, fpp);
+        this.numHashes = optimalNumOfHashes(expectedInsertions, numBits);
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isReady() {
+        return mirror != null;
+    }
+
+    /**
+     * 判断数据是否可能存在，只查本地镜像
+     * @return false代表一定不存在；true代表可能存在
+     */
+    public boolean mightContain(Object id) {
+        BitArray bits = mirror;
+        if (bits == null) {
+            // 尚未构建完成，不做拦截
+            return true;
+        }
+        return bits.getAll(offsets(id));
+    }
+
+    /**
+     * 新增数据，同时写入本地镜像和Redis位图
+     */
+    public void add(Object id) {
+        long[] offsets = offsets(id);
+        setLocal(offsets);
+        boolean toRebuildKey = rebuilding;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long offset : offsets) {
+                conn.setBit(key, offset, true);
+                if (toRebuildKey) {
+                    conn.setBit(key + REBUILD_SUFFIX, offset, true);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 其他节点新增的数据，只写入本地镜像，Redis位图已经由新增的节点写入
+     */
+    public void addLocal(Object id) {
+        setLocal(offsets(id));
+    }
+
+    private void setLocal(long[] offsets) {
+        BitArray bits = mirror;
+        if (bits != null) {
+            bits.setAll(offsets);
+        }
+        BitArray pending = pendingMirror;
+        if (pending != null) {
+            pending.setAll(offsets);
+        }
+    }
+
+    /**
+     * 尝试从Redis加载已有的位图到本地镜像
+     * @return Redis中不存在位图或者参数不一致时返回false
+     */
+    public synchronized boolean loadFromRedis() {
+        Map<Object, Object> meta = stringRedisTemplate.opsForHash().entries(key + META_SUFFIX);
+        if (!String.valueOf(numBits).equals(meta.get("bits"))
+                || !String.valueOf(numHashes).equals(meta.get("hashes"))) {
+            return false;
+        }
+        BitArray bits = new BitArray(numBits);
+        pendingMirror = bits;
+        try {
+            if (!readFromRedis(bits)) {
+                return false;
+            }
+            mirror = bits;
+        } finally {
+            pendingMirror = null;
+        }
+        log.info("布隆过滤器从Redis加载完成，key: {}, bits: {}, hashes: {}", key, numBits, numHashes);
+        return true;
+    }
+
+    /**
+     * 读取Redis位图合并到本地位图
+     * @return Redis中不存在位图时返回false
+     */
+    private boolean readFromRedis(BitArray bits) {
+        byte[] bytes = stringRedisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.get(key.getBytes(StandardCharsets.UTF_8)));
+        if (bytes == null) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b == 0) {
+                continue;
+            }
+            // Redis位图中，每个字节的最高位对应最小的offset
+            for (int j = 0; j < 8; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    bits.set((long) i * 8 + j);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 原地重建：先分批写入临时位图，完成后替换正式位图，重建期间过滤器正常可用
+     * 1.多个节点同时发现需要重建时，只有拿到Redis锁的节点执行，避免互相清空临时位图
+     * 2.其他节点新增的数据只写入正式位图，替换时在Lua脚本中先合并正式位图再RENAME，
+     *   替换后重新读取合并后的位图作为本地镜像
+     * @param idLoader 根据上一批最大的id加载下一批id，返回空集合时结束
+     * @param lockSeconds 重建锁的超时时间，需要大于重建耗时
+     * @return 其他节点正在重建时返回false
+     */
+    public synchronized boolean rebuild(Function<Long, List<Long>> idLoader, long lockSeconds) {
+        SimpleRedisLock lock = new SimpleRedisLock("bloom:rebuild:" + key, stringRedisTemplate);
+        if (!lock.tryLock(lockSeconds)) {
+            log.info("其他节点正在重建布隆过滤器，key: {}", key);
+            return false;
+        }
+        try {
+            rebuild(idLoader);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private void rebuild(Function<Long, List<Long>> idLoader) {
+        long begin = System.currentTimeMillis();
+        String rebuildKey = key + REBUILD_SUFFIX;
+        stringRedisTemplate.delete(rebuildKey);
+        BitArray bits = new BitArray(numBits);
+        pendingMirror = bits;
+        rebuilding = true;
+        long count = 0;
+        try {
+            long lastId = 0;
+            List<Long> ids;
+            while (!(ids = idLoader.apply(lastId)).isEmpty()) {
+                List<Long> batch = ids;
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Long id : batch) {
+                        long[] offsets = offsets(id);
+                        bits.setAll(offsets);
+                        for (long offset : offsets) {
+                            conn.setBit(rebuildKey, offset, true);
+                        }
+                    }
+                    return null;
+                });
+                count += batch.size();
+                lastId = batch.get(batch.size() - 1);
+            }
+            // 保证位图长度，避免没有任何数据时RENAME失败
+            stringRedisTemplate.opsForValue().setBit(rebuildKey, numBits - 1, false);
+            // 合并其他节点重建期间新增的数据后替换，并写入参数
+            stringRedisTemplate.execute(SWAP_SCRIPT, Arrays.asList(rebuildKey, key, key + META_SUFFIX),
+                    String.valueOf(numBits), String.valueOf(numHashes));
+            rebuilding = false;
+            readFromRedis(bits);
+            mirror = bits;
+        } finally {
+            pendingMirror = null;
+            rebuilding = false;
+        }
+        log.info("布隆过滤器重建完成，key: {}, 数据量: {}, 耗时: {}ms", key, count, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 双重哈希计算k个位置：offset_i = h1 + i * h2
+     */
+    long[] offsets(Object id) {
+        long[] hash = MurmurHash.hash128(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+        long h1 = hash[0];
+        long h2 = hash[1];
+        long[] offsets = new long[numHashes];
+        long combined = h1;
+        for (int i = 0; i < numHashes; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += h2;
+        }
+        return offsets;
+    }
+
+    static long optimalNumOfBits(long n, double p) {
+        if (p == 0) {
+            p = Double.MIN_VALUE;
+        }
+        return (long) (-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    }
+
+    static int optimalNumOfHashes(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    /**
+     * 线程安全的本地位图
+     */
+    private static class BitArray {
+        private final AtomicLongArray data;
+
+        BitArray(long numBits) {
+            this.data = new AtomicLongArray((int) ((numBits + 63) >>> 6));
+        }
+
+        void set(long index) {
+            int i = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = data.get(i);
+                if ((old & mask) != 0) {
+                    return;
+                }
+            } while (!data.compareAndSet(i, old, old | mask));
+        }
+
+        boolean get(long index) {
+            return (data.get((int) (index >>> 6)) & (1L << index)) != 0;
+        }
+
+        void setAll(long[] indexes) {
+            for (long index : indexes) {
+                set(index);
+            }
+        }
+
+        boolean getAll(long[] indexes) {
+            for (long index : indexes) {
+                if (!get(index)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
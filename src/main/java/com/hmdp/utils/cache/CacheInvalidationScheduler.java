@@ -0,0 +1,141 @@
+package com.hmdp.utils.cache;
+
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.CacheUpdateMessage;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 延迟双删：立即删除一次，延迟一段时间后再删除一次
+ * 清掉并发查询在数据库提交前读到旧数据、又写回缓存的脏数据
+ * 1.延迟删除用时间轮调度，到期时间按窗口分组，同一个窗口内的key合并成一次pipeline DEL
+ * 2.同一个窗口内重复的key只删除一次
+ * 3.延迟删除时再广播一次本地缓存失效，两次删除之间其他节点加载到本地缓存的旧数据也会被清掉
+ */
+@Slf4j
+@Component
+public class CacheInvalidationScheduler {
+
+    private final Consumer<Collection<String>> deleter;
+    private final Consumer<Collection<String>> broadcaster;
+    private final long delayMillis;
+    private final long windowMillis;
+    private final HashedWheelTimer timer;
+
+    /**
+     * 窗口编号 -> 窗口结束时要删除的key
+     */
+    private final Map<Long, Set<String>> windows = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CacheInvalidationScheduler(StringRedisTemplate stringRedisTemplate, LocalCache localCache,
+                                      KafkaTemplate<String, Object> kafkaTemplate,
+                                      @Value("${hmdp.cache.double-delete.delay-millis:1000}") long delayMillis,
+                                      @Value("${hmdp.cache.double-delete.window-millis:100}") long windowMillis) {
+        this(keys -> {
+            byte[][] rawKeys = keys.stream().map(k -> k.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.keyCommands().del(rawKeys);
+                return null;
+            });
+            keys.forEach(localCache::invalidate);
+        }, keys -> {
+            for (String key : keys) {
+                kafkaTemplate.send(KafkaConfig.LOCAL_CACHE_EVICT_TOPIC, key,
+                        new CacheUpdateMessage(CacheUpdateMessage.TYPE_DELETE, key, null, null, 0));
+            }
+        }, delayMillis, windowMillis);
+    }
+
+    CacheInvalidationScheduler(Consumer<Collection<String>> deleter, Consumer<Collection<String>> broadcaster,
+                               long delayMillis, long windowMillis) {
+        this.deleter = deleter;
+        this.broadcaster = broadcaster;
+        this.delayMillis = delayMillis;
+        this.windowMillis = Math.max(windowMillis, 1);
+        this.timer = new HashedWheelTimer(r -> {
+            Thread thread = new Thread(r, "cache-double-delete");
+            thread.setDaemon(true);
+            return thread;
+        }, this.windowMillis, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * 立即删除，并在延迟后再删除一次
+     */
+    public void invalidate(String key) {
+        deleter.accept(Collections.singleton(key));
+        scheduleDelete(key);
+    }
+
+    /**
+     * 只登记延迟删除
+     */
+    public void scheduleDelete(String key) {
+        long now = System.currentTimeMillis();
+        long window = (now + delayMillis) / windowMillis;
+        boolean[] created = new boolean[1];
+        // compute和flush中的remove互斥，key要么进入还没删除的窗口，要么开启一个新窗口
+        windows.compute(window, (w, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+                created[0] = true;
+            }
+            keys.add(key);
+            return keys;
+        });
+        if (created[0]) {
+            long delay = (window + 1) * windowMillis - now;
+            timer.newTimeout(timeout -> flush(window), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(long window) {
+        Set<String> keys = windows.remove(window);
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        try {
+            deleter.accept(keys);
+            log.debug("延迟删除缓存{}个", keys.size());
+        } catch (Exception e) {
+            log.error("延迟删除缓存失败，keys: {}", keys, e);
+        }
+        try {
+            broadcaster.accept(keys);
+        } catch (Exception e) {
+            log.error("广播本地缓存失效失败，keys: {}", keys, e);
+        }
+    }
+
+    /**
+     * 关闭时立即执行还没到期的删除
+     */
+    @PreDestroy
+    public void shutdown() {
+        Set<Timeout> pending = timer.stop();
+        if (!pending.isEmpty()) {
+            log.info("关闭前执行未到期的延迟删除，窗口数: {}", pending.size());
+        }
+        for (Long window : windows.keySet()) {
+            flush(window);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.hmdp.utils.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 缓存指标，按key前缀统计
+ * 1.cache.requests：查询结果，result区分本地命中、Redis命中、空值命中、未命中、返回旧数据、布隆过滤器拦截
+ * 2.cache.lock.contention：重建时获取互斥锁失败的次数
+ * 3.cache.redis.latency / cache.db.latency：Redis查询和回源数据库的耗时
+ * 4.cache.value.size：写入Redis的序列化后大小
+ * 5.cache.publish：CacheManager发送Kafka消息的结果，按topic统计
+ */
+@Component
+public class CacheMetrics {
+
+    public enum Outcome {
+        LOCAL_HIT, HIT, NULL_HIT, MISS, STALE, BLOOM_REJECT;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final MeterRegistry meterRegistry;
+
+    private final Set<String> prefixes = ConcurrentHashMap.newKeySet();
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 取key最后一个冒号之前的部分作为前缀，如cache:shop:1 -> cache:shop:
+     */
+    public static String prefixOf(String key) {
+        return key.substring(0, key.lastIndexOf(':') + 1);
+    }
+
+    public void record(String prefix, Outcome outcome) {
+        record(prefix, outcome, 1);
+    }
+
+    public void record(String prefix, Outcome outcome, int count) {
+        if (count > 0) {
+            requestCounter(prefix, outcome).increment(count);
+        }
+    }
+
+    public void lockContention(String prefix) {
+        counter("cache.lock.contention", prefix).increment();
+    }
+
+    public <T> T timeRedis(String prefix, Supplier<T> supplier) {
+        return time(timer("cache.redis.latency", prefix), supplier);
+    }
+
+    public <T> T timeDb(String prefix, Supplier<T> supplier) {
+        return time(timer("cache.db.latency", prefix), supplier);
+    }
+
+    public void valueSize(String prefix, int bytes) {
+        summaries.computeIfAbsent(prefix, p -> DistributionSummary.builder("cache.value.size")
+                .baseUnit("bytes")
+                .tag("prefix", p)
+                .publishPercentiles(PERCENTILES)
+                .register(meterRegistry)).record(bytes);
+    }
+
+    public void publish(String topic, boolean success) {
+        topics.add(topic);
+        counters.computeIfAbsent("cache.publish|" + topic + "|" + success, k -> Counter.builder("cache.publish")
+                .tag("topic", topic)
+                .tag("result", success ? "success" : "failure")
+                .register(meterRegistry)).increment();
+    }
+
+    /**
+     * 按前缀汇总的统计信息，供actuator端点展示
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Object> caches = new TreeMap<>();
+        for (String prefix : prefixes) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long total = 0;
+            long hits = 0;
+            for (Outcome outcome : Outcome.values()) {
+                long count = (long) requestCounter(prefix, outcome).count();
+                stats.put(outcome.tag, count);
+                total += count;
+                if (outcome == Outcome.LOCAL_HIT || outcome == Outcome.HIT
+                        || outcome == Outcome.NULL_HIT || outcome == Outcome.STALE) {
+                    hits += count;
+                }
+            }
+            stats.put("hit_ratio", total == 0 ? 0 : (double) hits / total);
+            stats.put("lock_contention", (long) counter("cache.lock.contention", prefix).count());
+            stats.put("redis_latency_ms", timerStats(timer("cache.redis.latency", prefix)));
+            stats.put("db_latency_ms", timerStats(timer("cache.db.latency", prefix)));
+            DistributionSummary size = summaries.get(prefix);
+            if (size != null) {
+                stats.put("value_size_bytes", percentiles(size.takeSnapshot(), 1));
+            }
+            caches.put(prefix, stats);
+        }
+        result.put("caches", caches);
+        Map<String, Object> publish = new TreeMap<>();
+        for (String topic : topics) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            for (boolean success : new boolean[]{true, false}) {
+                Counter counter = counters.get("cache.publish|" + topic + "|" + success);
+                stats.put(success ? "success" : "failure", counter == null ? 0 : (long) counter.count());
+            }
+            publish.put(topic, stats);
+        }
+        result.put("publish", publish);
+        return result;
+    }
+
+    private static <T> T time(Timer timer, Supplier<T> supplier) {
+        long begin = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            timer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Counter requestCounter(String prefix, Outcome outcome) {
+        prefixes.add(prefix);
+        return counters.computeIfAbsent("cache.requests|" + prefix + "|" + outcome.tag, k -> Counter.builder("cache.requests")
+                .tag("prefix", prefix)
+                .tag("result", outcome.tag)
+                .register(meterRegistry));
+    }
+
+    private Counter counter(String name, String prefix) {
+        prefixes.add(prefix);
+        return counters.computeIfAbsent(name + "|" + prefix, k -> Counter.builder(name)
+                .tag("prefix", prefix)
+                .register(meterRegistry));
+    }
+
+    private Timer timer(String name, String prefix) {
+        prefixes.add(prefix);
+        return timers.computeIfAbsent(name + "|" + prefix, k -> Timer.builder(name)
+                .tag("prefix", prefix)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private static Map<String, Object> timerStats(Timer timer) {
+        return percentiles(timer.takeSnapshot(), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * @param scale 原始值除以scale后输出，计时器从纳秒换算为毫秒
+     */
+    private static Map<String, Object> percentiles(HistogramSnapshot snapshot, double scale) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", snapshot.count());
+        stats.put("mean", snapshot.mean() / scale);
+        stats.put("max", snapshot.max() / scale);
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            stats.put("p" + Math.round(value.percentile() * 100), value.value() / scale);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,216 @@
+package com.hmdp.utils.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.CacheUpdateMessage;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheManager;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发件箱投递：定时按主键顺序取出一批缓存事件发送到Kafka
+ * 1.多节点通过Redis锁保证同一时间只有一个节点投递
+ * 2.一批消息全部异步发送，由生产者的linger.ms和batch.size合并请求，最后统一等待结果
+ * 3.发送成功的事件批量删除，失败的增加重试次数，按指数退避推迟下次投递时间，未到时间的事件不会取出
+ *   同一个key的新事件发送成功后，删除还在退避中的旧事件
+ * 4.失败次数达到上限的事件（消息过大、主题不存在等）移动到死信表，并直接删除Redis缓存兜底
+ */
+@Slf4j
+@Component
+public class CacheOutboxRelay {
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+    @Resource
+    private KafkaTemplate<String, Object> kafkaTemplate;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private CacheManager cacheManager;
+
+    @Value("${hmdp.outbox.batch-size:500}")
+    private int batchSize;
+    @Value("${hmdp.outbox.send-timeout-millis:5000}")
+    private long sendTimeoutMillis;
+    @Value("${hmdp.outbox.lock-seconds:30}")
+    private long lockSeconds;
+    @Value("${hmdp.outbox.max-retries:10}")
+    private int maxRetries;
+    @Value("${hmdp.outbox.retry-base-seconds:1}")
+    private long retryBaseSeconds;
+    @Value("${hmdp.outbox.retry-max-seconds:300}")
+    private long retryMaxSeconds;
+
+    @Scheduled(fixedDelayString = "${hmdp.outbox.poll-interval-millis:200}")
+    public void relay() {
+        SimpleRedisLock lock = new SimpleRedisLock("outbox:relay", stringRedisTemplate);
+        try {
+            if (!lock.tryLock(lockSeconds)) {
+                return;
+            }
+        } catch (Exception e) {
+            log.error("获取发件箱投递锁失败", e);
+            return;
+        }
+        try {
+            // 积压时连续投递，留出一半的锁时间余量
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lockSeconds) / 2;
+            boolean backlog = true;
+            while (backlog && System.currentTimeMillis() < deadline) {
+                backlog = relayBatch();
+            }
+        } catch (Exception e) {
+            log.error("发件箱投递失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 投递一批事件
+     * @return 是否还有积压
+     */
+    private boolean relayBatch() {
+        // 1.按主键顺序取一批到了投递时间的事件
+        List<CacheOutbox> rows = cacheOutboxService.query()
+                .and(w -> w.isNull("next_retry_at").or().apply("next_retry_at <= NOW()"))
+                .orderByAsc("id")
+                .last("limit " + batchSize)
+                .list();
+        if (rows.isEmpty()) {
+            return false;
+        }
+        // 2.同一个key只发送最新的一条，旧的直接视为完成
+        Map<String, CacheOutbox> latest = new LinkedHashMap<>();
+        for (CacheOutbox row : rows) {
+            latest.put(row.getTopic() + "|" + row.getCacheKey(), row);
+        }
+        List<Long> done = new ArrayList<>(rows.size());
+        for (CacheOutbox row : rows) {
+            if (latest.get(row.getTopic() + "|" + row.getCacheKey()) != row) {
+                done.add(row.getId());
+            }
+        }
+        // 3.全部异步发送后统一flush，由生产者合并成批
+        Map<CacheOutbox, ListenableFuture<SendResult<String, Object>>> futures = new LinkedHashMap<>();
+        List<Long> failed = new ArrayList<>();
+        List<CacheOutbox> dead = new ArrayList<>();
+        for (CacheOutbox row : latest.values()) {
+            if (row.getRetryCount() != null && row.getRetryCount() >= maxRetries) {
+                dead.add(row);
+                continue;
+            }
+            CacheUpdateMessage message;
+            try {
+                message = objectMapper.readValue(row.getPayload(), CacheUpdateMessage.class);
+            } catch (JsonProcessingException e) {
+                // 无法解析的事件重试也不会成功，直接丢弃
+                log.error("发件箱事件解析失败，id: {}, payload: {}", row.getId(), row.getPayload(), e);
+                done.add(row.getId());
+                continue;
+            }
+            try {
+                futures.put(row, kafkaTemplate.send(row.getTopic(), row.getCacheKey(), message));
+            } catch (Exception e) {
+                log.error("发件箱事件发送失败，id: {}, key: {}", row.getId(), row.getCacheKey(), e);
+                cacheMetrics.publish(row.getTopic(), false);
+                failed.add(row.getId());
+            }
+        }
+        kafkaTemplate.flush();
+        // 4.等待发送结果
+        List<CacheOutbox> sent = new ArrayList<>(futures.size());
+        long deadline = System.currentTimeMillis() + sendTimeoutMillis;
+        for (Map.Entry<CacheOutbox, ListenableFuture<SendResult<String, Object>>> entry : futures.entrySet()) {
+            CacheOutbox row = entry.getKey();
+            try {
+                entry.getValue().get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                cacheMetrics.publish(row.getTopic(), true);
+                done.add(row.getId());
+                sent.add(row);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.add(row.getId());
+            } catch (Exception e) {
+                log.error("发件箱事件发送失败，id: {}, key: {}", row.getId(), row.getCacheKey(), e);
+                cacheMetrics.publish(row.getTopic(), false);
+                failed.add(row.getId());
+            }
+        }
+        // 5.成功的批量删除，失败的留在发件箱
+        if (!done.isEmpty()) {
+            cacheOutboxService.removeByIds(done);
+        }
+        if (!sent.isEmpty()) {
+            removeSuperseded(sent);
+        }
+        if (!dead.isEmpty()) {
+            moveToDead(dead);
+        }
+        if (!failed.isEmpty()) {
+            // MySQL按顺序执行赋值，先用原来的重试次数计算退避时间
+            cacheOutboxService.update()
+                    .setSql("next_retry_at = DATE_ADD(NOW(), INTERVAL LEAST(" + retryBaseSeconds
+                            + " * POW(2, LEAST(retry_count, 30)), " + retryMaxSeconds + ") SECOND)")
+                    .setSql("retry_count = retry_count + 1")
+                    .in("id", failed)
+                    .update();
+            log.warn("发件箱投递失败{}条，退避后重试", failed.size());
+            return false;
+        }
+        log.debug("发件箱投递{}条", done.size());
+        return rows.size() == batchSize;
+    }
+
+    /**
+     * 同一个key还在退避中的旧事件已经被新事件取代，直接删除，避免之后投递覆盖新的值
+     */
+    private void removeSuperseded(List<CacheOutbox> sent) {
+        QueryWrapper<CacheOutbox> wrapper = new QueryWrapper<>();
+        for (CacheOutbox row : sent) {
+            wrapper.or(w -> w.eq("topic", row.getTopic()).eq("cache_key", row.getCacheKey()).lt("id", row.getId()));
+        }
+        cacheOutboxService.remove(wrapper);
+    }
+
+    /**
+     * 移动到死信表，消息发不出去时其他节点收不到通知，直接删除Redis缓存，本地缓存等待过期
+     */
+    private void moveToDead(List<CacheOutbox> dead) {
+        List<Long> ids = new ArrayList<>(dead.size());
+        for (CacheOutbox row : dead) {
+            ids.add(row.getId());
+            log.error("发件箱事件失败{}次，移动到死信表，id: {}, topic: {}, key: {}",
+                    row.getRetryCount(), row.getId(), row.getTopic(), row.getCacheKey());
+        }
+        cacheOutboxService.moveToDead(ids);
+        for (CacheOutbox row : dead) {
+            try {
+                cacheManager.deleteCacheTwice(row.getCacheKey());
+            } catch (Exception e) {
+                log.error("删除缓存失败，key: {}", row.getCacheKey(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.hmdp.utils.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 缓存重建调度器
+ * 1.同一个key排队或执行期间只会提交一次
+ * 2.队列有界，满了直接拒绝，调用方继续返回旧数据
+ * 3.热点key和已过期的key优先执行，提前刷新的key排在后面
+ * 4.应用关闭时停止接收新任务，等待队列中的任务执行完
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler implements SmartLifecycle {
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final long drainTimeoutMillis;
+
+    /**
+     * 正在排队或执行的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean running;
+
+    /**
+     * 判断key是否为热点，由热点key探测器注册
+     */
+    private volatile Predicate<String> hotKeyPredicate = key -> false;
+
+    private final Timer rebuildTimer;
+    private final Counter failureCounter;
+    private final Counter rejectedCounter;
+    private final Counter dedupedCounter;
+
+    public CacheRebuildScheduler(MeterRegistry meterRegistry,
+                                 @Value("${hmdp.cache.rebuild.threads:10}") int threads,
+                                 @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity,
+                                 @Value("${hmdp.cache.rebuild.drain-timeout-millis:10000}") long drainTimeoutMillis) {
+        this.queueCapacity = queueCapacity;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 优先级队列本身无界，容量由queued计数控制
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("cache.rebuild.queue.depth", queued, AtomicInteger::get)
+                .description("等待执行的缓存重建任务数")
+                .register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行的缓存重建任务数")
+                .register(meterRegistry);
+        this.rebuildTimer = Timer.builder("cache.rebuild.latency")
+                .description("缓存重建耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.failureCounter = meterRegistry.counter("cache.rebuild.failures");
+        this.rejectedCounter = meterRegistry.counter("cache.rebuild.rejected");
+        this.dedupedCounter = meterRegistry.counter("cache.rebuild.deduplicated");
+    }
+
+    public void setHotKeyPredicate(Predicate<String> hotKeyPredicate) {
+        this.hotKeyPredicate = hotKeyPredicate;
+    }
+
+    /**
+     * 提交单个key的重建任务
+     * @param expired 数据是否已经过期，false表示提前刷新
+     * @return 已提交或已有相同key在排队返回true，队列已满或已关闭返回false
+     */
+    public boolean submit(String key, boolean expired, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            dedupedCounter.increment();
+            return true;
+        }
+        List<String> keys = Collections.singletonList(key);
+        return enqueue(keys, priority(keys, expired), task);
+    }
+
+    /**
+     * 提交批量重建任务，已经在排队的key会被过滤掉，剩余的合并为一个任务
+     * @param keyed key到业务id的映射
+     * @param task 接收过滤后剩余的业务id
+     * @return 已提交或全部key都在排队返回true，队列已满或已关闭返回false
+     */
+    public <T> boolean submitBatch(Map<String, T> keyed, boolean expired, Consumer<List<T>> task) {
+        List<String> keys = new ArrayList<>(keyed.size());
+        List<T> values = new ArrayList<>(keyed.size());
+        for (Map.Entry<String, T> entry : keyed.entrySet()) {
+            if (pendingKeys.add(entry.getKey())) {
+                keys.add(entry.getKey());
+                values.add(entry.getValue());
+            } else {
+                dedupedCounter.increment();
+            }
+        }
+        if (keys.isEmpty()) {
+            return true;
+        }
+        return enqueue(keys, priority(keys, expired), () -> task.accept(values));
+    }
+
+    private boolean enqueue(List<String> keys, int priority, Runnable task) {
+        // 1.队列已满或已关闭，拒绝
+        if (!running || queued.incrementAndGet() > queueCapacity) {
+            if (running) {
+                queued.decrementAndGet();
+            }
+            keys.forEach(pendingKeys::remove);
+            rejectedCounter.increment();
+            log.warn("缓存重建队列已满或已关闭，返回旧数据，keys: {}", keys);
+            return false;
+        }
+        // 2.放入优先级队列
+        try {
+            executor.execute(new RebuildTask(keys, priority, sequence.incrementAndGet(), task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            keys.forEach(pendingKeys::remove);
+            rejectedCounter.increment();
+            return false;
+        }
+    }
+
+    private int priority(List<String> keys, boolean expired) {
+        int priority = expired ? 1 : 0;
+        Predicate<String> predicate = hotKeyPredicate;
+        for (String key : keys) {
+            if (predicate.test(key)) {
+                return priority + 2;
+            }
+        }
+        return priority;
+    }
+
+    public int queueDepth() {
+        return queued.get();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                List<Runnable> dropped = executor.shutdownNow();
+                log.warn("缓存重建队列未能在{}ms内执行完，丢弃{}个任务", drainTimeoutMillis, dropped.size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 晚于Kafka监听器等组件停止，早于Redis连接关闭
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE + 1000;
+    }
+
+    private final class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final List<String> keys;
+        private final int priority;
+        private final long seq;
+        private final Runnable task;
+
+        private RebuildTask(List<String> keys, int priority, long seq, Runnable task) {
+            this.keys = keys;
+            this.priority = priority;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            long begin = System.nanoTime();
+            try {
+                task.run();
+            } catch (Exception e) {
+                failureCounter.increment();
+                log.error("缓存重建失败，keys: {}", keys, e);
+            } finally {
+                rebuildTimer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                keys.forEach(pendingKeys::remove);
+            }
+        }
+
+        /**
+         * 优先级高的先执行，相同优先级按提交顺序
+         */
+        @Override
+        public int compareTo(RebuildTask o) {
+            if (priority != o.priority) {
+                return Integer.compare(o.priority, priority);
+            }
+            return Long.compare(seq, o.seq);
+        }
+    }
+}
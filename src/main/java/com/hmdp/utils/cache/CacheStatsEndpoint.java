@@ -0,0 +1,25 @@
+package com.hmdp.utils.cache;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 查看本节点按key前缀汇总的缓存命中率、耗时、数据大小和消息发送结果：GET /actuator/cachestats
+ * 原始指标可以通过/actuator/metrics/cache.requests等查看
+ */
+@Component
+@Endpoint(id = "cachestats")
+public class CacheStatsEndpoint {
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @ReadOperation
+    public Map<String, Object> cacheStats() {
+        return cacheMetrics.snapshot();
+    }
+}
@@ -0,0 +1,157 @@
+package com.hmdp.utils.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.CacheUpdateMessage;
+import com.hmdp.utils.CacheManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static com.hmdp.utils.constants.RedisConstants.CACHE_RETRY_HASH_KEY;
+import static com.hmdp.utils.constants.RedisConstants.CACHE_RETRY_ZSET_KEY;
+
+/**
+ * 缓存更新失败的延迟重试队列，不阻塞Kafka消费线程
+ * 1.失败的消息按1/5/10/30秒的梯度写入Redis：ZSET保存到期时间，HASH保存消息，同一个key只保留最新的一条
+ * 2.定时任务批量取出到期的消息，重新发送到缓存更新主题
+ * 3.重试次数用完后发送到死信主题，并发送缓存清理消息兜底
+ * 4.同一个key后续更新成功时取消等待中的重试，避免旧值覆盖新值
+ */
+@Slf4j
+@Component
+public class CacheUpdateRetryQueue {
+
+    private static final DefaultRedisScript<List> POP_SCRIPT;
+    static {
+        POP_SCRIPT = new DefaultRedisScript<>();
+        POP_SCRIPT.setLocation(new ClassPathResource("retry_pop.lua"));
+        POP_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private KafkaTemplate<String, Object> kafkaTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private CacheManager cacheManager;
+
+    @Value("${hmdp.kafka.retry.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 处理失败的消息：还能重试时加入延迟队列，否则发送到死信主题
+     */
+    public void retry(CacheUpdateMessage message) {
+        String key = message.getCacheKey();
+        if (!message.canRetry()) {
+            // 达到最大重试次数，发送到死信主题和清理队列
+            log.error("缓存更新重试次数已达上限，发送到死信主题，key: {}", key);
+            kafkaTemplate.send(KafkaConfig.CACHE_UPDATE_DLT_TOPIC, key, message);
+            cacheManager.sendCacheCleanMessage(key);
+            return;
+        }
+        message.incrementRetry();
+        long delay = getRetryDelay(message.getRetryCount());
+        try {
+            enqueue(message, delay);
+            log.info("缓存更新失败，{}秒后重试，重试次数: {}，key: {}", delay, message.getRetryCount(), key);
+        } catch (Exception e) {
+            // 写入延迟队列失败，直接清理缓存兜底
+            log.error("写入重试队列失败，key: {}", key, e);
+            cacheManager.sendCacheCleanMessage(key);
+        }
+    }
+
+    /**
+     * 取消等待中的重试，同一个key的更新已经成功
+     */
+    public void cancel(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        byte[][] fields = keys.stream().map(k -> k.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.zSetCommands().zRem(CACHE_RETRY_ZSET_KEY.getBytes(StandardCharsets.UTF_8), fields);
+            connection.hashCommands().hDel(CACHE_RETRY_HASH_KEY.getBytes(StandardCharsets.UTF_8), fields);
+            return null;
+        });
+    }
+
+    /**
+     * 定时取出到期的消息，批量重新发送
+     */
+    @Scheduled(fixedDelayString = "${hmdp.kafka.retry.poll-interval-millis:500}")
+    public void republishDueMessages() {
+        List<?> due;
+        try {
+            due = stringRedisTemplate.execute(POP_SCRIPT,
+                    Arrays.asList(CACHE_RETRY_ZSET_KEY, CACHE_RETRY_HASH_KEY),
+                    String.valueOf(System.currentTimeMillis()), String.valueOf(batchSize));
+        } catch (Exception e) {
+            log.error("读取重试队列失败", e);
+            return;
+        }
+        if (due == null || due.isEmpty()) {
+            return;
+        }
+        for (Object json : due) {
+            CacheUpdateMessage message;
+            try {
+                message = objectMapper.readValue(json.toString(), CacheUpdateMessage.class);
+            } catch (JsonProcessingException e) {
+                log.error("重试消息解析失败，message: {}", json, e);
+                continue;
+            }
+            kafkaTemplate.send(KafkaConfig.CACHE_UPDATE_TOPIC, message.getCacheKey(), message)
+                    .addCallback(result -> { }, ex -> {
+                        // 发送失败，1秒后再次尝试，不增加重试次数
+                        log.error("重试消息发送失败，key: {}", message.getCacheKey(), ex);
+                        try {
+                            enqueue(message, 1);
+                        } catch (Exception e) {
+                            cacheManager.sendCacheCleanMessage(message.getCacheKey());
+                        }
+                    });
+        }
+        log.info("重新发送缓存更新消息{}条", due.size());
+    }
+
+    /**
+     * 先写消息再写到期时间，取出时一定能读到消息
+     */
+    private void enqueue(CacheUpdateMessage message, long delaySeconds) throws JsonProcessingException {
+        String key = message.getCacheKey();
+        String json = objectMapper.writeValueAsString(message);
+        long dueTime = System.currentTimeMillis() + delaySeconds * 1000;
+        stringRedisTemplate.opsForHash().put(CACHE_RETRY_HASH_KEY, key, json);
+        stringRedisTemplate.opsForZSet().add(CACHE_RETRY_ZSET_KEY, key, dueTime);
+    }
+
+    /**
+     * 计算重试延迟时间（梯度重试策略）
+     */
+    private long getRetryDelay(int retryCount) {
+        switch (retryCount) {
+            case 1: return 1;   // 首次重试：1秒
+            case 2: return 5;   // 第二次重试：5秒
+            case 3: return 10;  // 第三次重试：10秒
+            default: return 30; // 其他情况：30秒
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.hmdp.utils.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.SeckillStockInfo;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.constants.RedisConstants.*;
+
+/**
+ * 启动预热：在应用就绪之前把商铺缓存、商铺GEO和秒杀库存写入Redis，避免发布或Redis切换后大量请求直接打到MySQL
+ * 1.按商铺类型拆分并行任务，每个任务按主键分页读取商铺，一页一个pipeline写入缓存和GEO
+ * 2.秒杀库存单独一个任务，只预热未结束的秒杀，且只在key不存在时写入，不覆盖Redis中正在扣减的库存；分段库存的秒杀券跳过
+ */
+@Slf4j
+@Component
+public class CacheWarmUp implements ApplicationRunner {
+
+    private static final DefaultRedisScript<Long> STOCK_INIT_SCRIPT;
+    static {
+        STOCK_INIT_SCRIPT = new DefaultRedisScript<>();
+        STOCK_INIT_SCRIPT.setLocation(new ClassPathResource("seckill_stock_init.lua"));
+        STOCK_INIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.warmup.page-size:500}")
+    private int pageSize;
+    @Value("${hmdp.warmup.parallelism:4}")
+    private int parallelism;
+    @Value("${hmdp.warmup.timeout-seconds:300}")
+    private long timeoutSeconds;
+    @Value("${hmdp.warmup.progress-interval-seconds:5}")
+    private long progressIntervalSeconds;
+
+    private final AtomicLong shopCount = new AtomicLong();
+    private final AtomicLong stockCount = new AtomicLong();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            log.info("缓存预热已关闭");
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "cache-warmup-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // 1.每个商铺类型一个任务，秒杀库存一个任务
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (ShopType shopType : shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"))) {
+                futures.add(CompletableFuture.runAsync(() -> warmUpShops(shopType.getId()), executor));
+            }
+            futures.add(CompletableFuture.runAsync(this::warmUpSeckillStock, executor));
+            // 2.等待完成，期间定期输出进度
+            CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+            long deadline = begin + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+            while (true) {
+                try {
+                    all.get(progressIntervalSeconds, TimeUnit.SECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    logProgress("缓存预热进行中", begin);
+                    if (System.currentTimeMillis() > deadline) {
+                        log.warn("缓存预热超过{}s未完成，剩余部分按需加载", timeoutSeconds);
+                        return;
+                    }
+                }
+            }
+            logProgress("缓存预热完成", begin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 预热失败不影响启动，缓存按需加载
+            log.error("缓存预热失败", e);
+            logProgress("缓存预热中断", begin);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 按主键分页读取同一类型的商铺，写入商铺缓存和GEO
+     */
+    private void warmUpShops(Long typeId) {
+        byte[] geoKey = (SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8);
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .eq("type_id", typeId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + pageSize));
+            if (shops.isEmpty()) {
+                return;
+            }
+            Map<String, Shop> values = new HashMap<>(shops.size());
+            Map<byte[], Point> locations = new HashMap<>(shops.size());
+            for (Shop shop : shops) {
+                values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+                if (shop.getX() != null && shop.getY() != null) {
+                    locations.put(shop.getId().toString().getBytes(StandardCharsets.UTF_8),
+                            new Point(shop.getX(), shop.getY()));
+                }
+            }
+            cacheClient.setBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            if (!locations.isEmpty()) {
+                byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    connection.geoCommands().geoAdd(geoKey, locations);
+                    return null;
+                });
+            }
+            shopCount.addAndGet(shops.size());
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 分页读取未结束的秒杀券，库存HASH不存在时写入，过期时间为秒杀结束后一天，同时写入不过期的结束时间
+     */
+    private void warmUpSeckillStock() {
+        long lastId = 0;
+        while (true) {
+            LocalDateTime now = LocalDateTime.now();
+            List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                    .gt("voucher_id", lastId)
+                    .gt("end_time", now)
+                    .orderByAsc("voucher_id")
+                    .last("LIMIT " + pageSize));
+            if (vouchers.isEmpty()) {
+                return;
+            }
+            // 分段库存的秒杀券由SegmentedStock维护，不写单个库存key
+            List<String> segmentKeys = new ArrayList<>(vouchers.size());
+            for (SeckillVoucher voucher : vouchers) {
+                segmentKeys.add(SECKILL_SEGMENTS_KEY + voucher.getVoucherId());
+            }
+            List<byte[]> segments = byteRedisTemplate.opsForValue().multiGet(segmentKeys);
+            List<SeckillVoucher> unsegmented = new ArrayList<>(vouchers.size());
+            for (int i = 0; i < vouchers.size(); i++) {
+                if (segments == null || segments.get(i) == null) {
+                    unsegmented.add(vouchers.get(i));
+                }
+            }
+            byte[] script = STOCK_INIT_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+            byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (SeckillVoucher voucher : vouchers) {
+                    connection.stringCommands().set(
+                            (SECKILL_END_KEY + voucher.getVoucherId()).getBytes(StandardCharsets.UTF_8),
+                            String.valueOf(SeckillStockInfo.epochSecond(voucher.getEndTime())).getBytes(StandardCharsets.UTF_8));
+                }
+                for (SeckillVoucher voucher : unsegmented) {
+                    String key = SECKILL_STOCK_KEY + voucher.getVoucherId();
+                    Map<String, String> fields = new SeckillStockInfo(
+                            voucher.getStock(), voucher.getBeginTime(), voucher.getEndTime()).toHash();
+                    connection.scriptingCommands().eval(script, ReturnType.INTEGER, 1,
+                            key.getBytes(StandardCharsets.UTF_8),
+                            fields.get("stock").getBytes(StandardCharsets.UTF_8),
+                            fields.get("begin").getBytes(StandardCharsets.UTF_8),
+                            fields.get("end").getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            stockCount.addAndGet(vouchers.size());
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+    }
+
+    private void logProgress(String stage, long begin) {
+        long elapsed = Math.max(System.currentTimeMillis() - begin, 1);
+        long shops = shopCount.get();
+        long stocks = stockCount.get();
+        log.info("{}，商铺: {}，秒杀库存: {}，耗时: {}ms，吞吐: {}条/s",
+                stage, shops, stocks, elapsed, (shops + stocks) * 1000 / elapsed);
+    }
+}
@@ -0,0 +1,201 @@
+package com.hmdp.utils.cache;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 本节点的热点key探测
+ * 滑动窗口由多个时间桶组成，每个桶一个Count-Min Sketch计数，窗口内访问次数达到阈值的key标记为热点
+ * 热点key持续一个时间桶没有达到阈值后自动降级
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+
+    private final int width;
+    private final int mask;
+    private final long bucketMillis;
+    private final long threshold;
+    private final int maxHotKeys;
+    private final Bucket[] buckets;
+
+    /**
+     * 当前的热点key
+     */
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(@Value("${hmdp.hotkey.window-seconds:10}") int windowSeconds,
+                          @Value("${hmdp.hotkey.bucket-count:10}") int bucketCount,
+                          @Value("${hmdp.hotkey.threshold:500}") long threshold,
+                          @Value("${hmdp.hotkey.sketch-width:4096}") int sketchWidth,
+                          @Value("${hmdp.hotkey.max-hot-keys:1000}") int maxHotKeys) {
+        // 宽度取2的幂，下标用位运算
+        this.width = Integer.highestOneBit(Math.max(sketchWidth - 1, 1)) << 1;
+        this.mask = width - 1;
+        this.bucketMillis = Math.max(windowSeconds * 1000L / bucketCount, 1);
+        this.threshold = threshold;
+        this.maxHotKeys = maxHotKeys;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket(DEPTH * width);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     * @return 是否为热点key
+     */
+    public boolean record(String key) {
+        return record(key, System.currentTimeMillis());
+    }
+
+    boolean record(String key, long now) {
+        long epoch = now / bucketMillis;
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        // 1.累加当前时间桶
+        currentBucket(epoch).increment(h1, h2);
+        // 2.估算窗口内的访问次数
+        long estimate = estimate(h1, h2, epoch);
+        if (estimate < threshold) {
+            return isHot(key, now);
+        }
+        // 3.达到阈值，标记为热点
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey == null) {
+            if (hotKeys.size() >= maxHotKeys) {
+                return false;
+            }
+            hotKey = hotKeys.computeIfAbsent(key, k -> {
+                log.info("发现热点key: {}, 窗口内访问次数: {}", k, estimate);
+                return new HotKey(k, now);
+            });
+        }
+        hotKey.setCount(estimate);
+        hotKey.setLastHotTime(now);
+        return true;
+    }
+
+    public boolean isHot(String key) {
+        return isHot(key, System.currentTimeMillis());
+    }
+
+    private boolean isHot(String key, long now) {
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey == null) {
+            return false;
+        }
+        if (now - hotKey.getLastHotTime() > bucketMillis) {
+            // 降级
+            hotKeys.remove(key, hotKey);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 当前的热点key，按访问次数倒序
+     */
+    public List<HotKey> hotKeys() {
+        return hotKeys(System.currentTimeMillis());
+    }
+
+    List<HotKey> hotKeys(long now) {
+        List<HotKey> list = new ArrayList<>(hotKeys.size());
+        for (HotKey hotKey : hotKeys.values()) {
+            if (isHot(hotKey.getKey(), now)) {
+                list.add(hotKey);
+            }
+        }
+        list.sort(Comparator.comparingLong(HotKey::getCount).reversed());
+        return list;
+    }
+
+    private Bucket currentBucket(long epoch) {
+        Bucket bucket = buckets[(int) (epoch % buckets.length)];
+        if (bucket.epoch != epoch) {
+            synchronized (bucket) {
+                if (bucket.epoch != epoch) {
+                    // 时间桶轮转，清空旧的计数
+                    bucket.clear();
+                    bucket.epoch = epoch;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private long estimate(int h1, int h2, long epoch) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * width + ((h1 + i * h2) & mask);
+            long sum = 0;
+            for (Bucket bucket : buckets) {
+                if (epoch - bucket.epoch < buckets.length) {
+                    sum += bucket.counts.get(index);
+                }
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        // 奇数步长，保证每一行的下标不同
+        return h | 1;
+    }
+
+    private final class Bucket {
+        private volatile long epoch = -1;
+        private final AtomicIntegerArray counts;
+
+        private Bucket(int size) {
+            this.counts = new AtomicIntegerArray(size);
+        }
+
+        private void increment(int h1, int h2) {
+            for (int i = 0; i < DEPTH; i++) {
+                counts.incrementAndGet(i * width + ((h1 + i * h2) & mask));
+            }
+        }
+
+        private void clear() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+    }
+
+    @Data
+    public static class HotKey {
+        private final String key;
+        /**
+         * 成为热点的时间
+         */
+        private final long hotSince;
+        /**
+         * 最近一次估算的窗口内访问次数
+         */
+        private volatile long count;
+        /**
+         * 最近一次达到阈值的时间
+         */
+        private volatile long lastHotTime;
+    }
+}
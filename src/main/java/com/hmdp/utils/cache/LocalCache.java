@@ -0,0 +1,120 @@
+package com.hmdp.utils.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内一级缓存（L1），按key前缀独立配置容量和过期时间
+ * 只有注册过的前缀才会启用，未注册的前缀直接走Redis
+ */
+@Slf4j
+@Component
+public class LocalCache {
+
+    /**
+     * 空值占位符，对应Redis中缓存的空字符串
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    private static final long STALE_MAXIMUM_SIZE = 10000;
+    private static final long STALE_TTL_MINUTES = 30;
+    private static final long HOT_MAXIMUM_SIZE = 10000;
+
+    private final Map<String, Cache<String, Object>> caches = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一次加载成功的数据副本，Redis过期且重建超时时作为兜底返回
+     */
+    private final Cache<String, Object> staleCopies = Caffeine.newBuilder()
+            .maximumSize(STALE_MAXIMUM_SIZE)
+            .expireAfterWrite(STALE_TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 热点key的本地副本，不区分前缀，存活时间很短，减少对单个Redis key的集中访问
+     */
+    private final Cache<String, Object> hotReplicas;
+
+    public LocalCache(@Value("${hmdp.hotkey.replica-ttl-millis:3000}") long hotReplicaTtlMillis) {
+        this.hotReplicas = Caffeine.newBuilder()
+                .maximumSize(HOT_MAXIMUM_SIZE)
+                .expireAfterWrite(hotReplicaTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 为指定前缀开启本地缓存
+     * @param keyPrefix key前缀
+     * @param maximumSize 最大条目数，超过后按访问频率淘汰
+     * @param ttl 写入后的存活时间
+     * @param unit 时间单位
+     */
+    public void register(String keyPrefix, long maximumSize, long ttl, TimeUnit unit) {
+        Cache<String, Object> cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl, unit)
+                .build();
+        caches.put(keyPrefix, cache);
+        log.info("本地缓存已开启，prefix: {}, maximumSize: {}, ttl: {}{}", keyPrefix, maximumSize, ttl, unit);
+    }
+
+    public boolean isEnabled(String keyPrefix) {
+        return caches.containsKey(keyPrefix);
+    }
+
+    /**
+     * 查询本地缓存
+     * @return 未命中返回null，命中空值返回{@link #NULL_VALUE}
+     */
+    public Object get(String keyPrefix, String key) {
+        Cache<String, Object> cache = caches.get(keyPrefix);
+        return cache == null ? null : cache.getIfPresent(key);
+    }
+
+    public void put(String keyPrefix, String key, Object value) {
+        Cache<String, Object> cache = caches.get(keyPrefix);
+        if (cache != null) {
+            cache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 查询热点key副本
+     * @return 未命中返回null，命中空值返回{@link #NULL_VALUE}
+     */
+    public Object getHot(String key) {
+        return hotReplicas.getIfPresent(key);
+    }
+
+    public void putHot(String key, Object value) {
+        hotReplicas.put(key, value == null ? NULL_VALUE : value);
+    }
+
+    public void putStale(String key, Object value) {
+        staleCopies.put(key, value);
+    }
+
+    public Object getStale(String key) {
+        return staleCopies.getIfPresent(key);
+    }
+
+    /**
+     * 根据完整的key失效本地缓存和旧数据副本
+     */
+    public void invalidate(String key) {
+        staleCopies.invalidate(key);
+        hotReplicas.invalidate(key);
+        for (Map.Entry<String, Cache<String, Object>> entry : caches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                entry.getValue().invalidate(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.hmdp.utils.cache;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 进程内请求合并：同一个key同一时刻只有一个线程执行加载，其他线程等待同一个结果
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载
+     * @param key 合并的key
+     * @param loader 加载逻辑，只会由第一个到达的线程执行
+     * @param timeout 等待其他线程加载结果的最长时间
+     * @throws TimeoutException 等待超时
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, long timeout, TimeUnit unit) throws TimeoutException {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing == null) {
+            // 当前线程负责加载
+            try {
+                T value = loader.get();
+                future.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, future);
+            }
+        }
+        // 等待正在加载的线程
+        try {
+            return (T) existing.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待加载结果时被中断，key: " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 当前正在加载的key数量
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,438 @@
+package com.hmdp.utils.codec;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 紧凑的二进制编解码器
+ * 按类生成一次字段结构（schema），编码时不写字段名，整数使用变长编码
+ * 格式：[版本号 1字节][schema哈希 4字节][非空位图][各非空字段的值]
+ * 只支持字段类型为基本类型及其包装类、String、LocalDateTime，且有无参构造的类，其他类型使用JSON
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    /**
+     * 版本号，JSON数据的第一个字节不会是该值，两种格式可以共存
+     */
+    public static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 5;
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final ClassValue<Schema> schemas = new ClassValue<Schema>() {
+        @Override
+        protected Schema computeValue(Class<?> type) {
+            return Schema.of(type);
+        }
+    };
+
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return schemas.get(type).supported;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema schema = schemas.get(value.getClass());
+        if (!schema.supported) {
+            throw new IllegalArgumentException("二进制编码不支持该类型：" + value.getClass().getName());
+        }
+        Output out = OUTPUT.get();
+        try {
+            out.writeByte(VERSION);
+            out.writeFixedInt(schema.hash);
+            int bitmapPos = out.reserve(schema.bitmapBytes);
+            FieldInfo[] fields = schema.fields;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].write(value, out)) {
+                    out.buf[bitmapPos + (i >>> 3)] |= (byte) (1 << (i & 7));
+                }
+            }
+            return out.toByteArray();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            out.reset();
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        Schema schema = schemas.get(type);
+        if (!schema.supported || bytes.length < HEADER_SIZE || bytes[0] != VERSION) {
+            return null;
+        }
+        Input in = new Input(bytes, 1);
+        if (in.readFixedInt() != schema.hash) {
+            // 类结构已变化，按未命中处理
+            return null;
+        }
+        try {
+            T value = type.cast(schema.constructor.newInstance());
+            int bitmapPos = in.pos;
+            in.pos += schema.bitmapBytes;
+            FieldInfo[] fields = schema.fields;
+            for (int i = 0; i < fields.length; i++) {
+                if ((bytes[bitmapPos + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                    fields[i].read(value, in);
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 字段类型
+     */
+    private enum Kind {
+        LONG, INT, DOUBLE, BOOLEAN, STRING, LOCAL_DATE_TIME,
+        P_LONG, P_INT, P_DOUBLE, P_BOOLEAN;
+
+        static Kind of(Class<?> type) {
+            if (type == Long.class) return LONG;
+            if (type == Integer.class) return INT;
+            if (type == Double.class) return DOUBLE;
+            if (type == Boolean.class) return BOOLEAN;
+            if (type == String.class) return STRING;
+            if (type == LocalDateTime.class) return LOCAL_DATE_TIME;
+            if (type == long.class) return P_LONG;
+            if (type == int.class) return P_INT;
+            if (type == double.class) return P_DOUBLE;
+            if (type == boolean.class) return P_BOOLEAN;
+            return null;
+        }
+    }
+
+    private static final class FieldInfo {
+        private final Field field;
+        private final Kind kind;
+
+        FieldInfo(Field field, Kind kind) {
+            this.field = field;
+            this.kind = kind;
+        }
+
+        /**
+         * @return 字段非空并已写入时返回true
+         */
+        boolean write(Object target, Output out) throws IllegalAccessException {
+            switch (kind) {
+                case P_LONG:
+                    out.writeVarLong(field.getLong(target));
+                    return true;
+                case P_INT:
+                    out.writeVarLong(field.getInt(target));
+                    return true;
+                case P_DOUBLE:
+                    out.writeFixedLong(Double.doubleToRawLongBits(field.getDouble(target)));
+                    return true;
+                case P_BOOLEAN:
+                    out.writeByte(field.getBoolean(target) ? 1 : 0);
+                    return true;
+                default:
+                    break;
+            }
+            Object value = field.get(target);
+            if (value == null) {
+                return false;
+            }
+            switch (kind) {
+                case LONG:
+                    out.writeVarLong((Long) value);
+                    break;
+                case INT:
+                    out.writeVarLong((Integer) value);
+                    break;
+                case DOUBLE:
+                    out.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+                    break;
+                case BOOLEAN:
+                    out.writeByte((Boolean) value ? 1 : 0);
+                    break;
+                case STRING:
+                    out.writeString((String) value);
+                    break;
+                case LOCAL_DATE_TIME:
+                    LocalDateTime time = (LocalDateTime) value;
+                    out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                    out.writeVarLong(time.getNano());
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+            return true;
+        }
+
+        void read(Object target, Input in) throws IllegalAccessException {
+            switch (kind) {
+                case P_LONG:
+                    field.setLong(target, in.readVarLong());
+                    break;
+                case P_INT:
+                    field.setInt(target, (int) in.readVarLong());
+                    break;
+                case P_DOUBLE:
+                    field.setDouble(target, Double.longBitsToDouble(in.readFixedLong()));
+                    break;
+                case P_BOOLEAN:
+                    field.setBoolean(target, in.readByte() != 0);
+                    break;
+                case LONG:
+                    field.set(target, in.readVarLong());
+                    break;
+                case INT:
+                    field.set(target, (int) in.readVarLong());
+                    break;
+                case DOUBLE:
+                    field.set(target, Double.longBitsToDouble(in.readFixedLong()));
+                    break;
+                case BOOLEAN:
+                    field.set(target, in.readByte() != 0);
+                    break;
+                case STRING:
+                    field.set(target, in.readString());
+                    break;
+                case LOCAL_DATE_TIME:
+                    long second = in.readVarLong();
+                    int nano = (int) in.readVarLong();
+                    field.set(target, LocalDateTime.ofEpochSecond(second, nano, ZoneOffset.UTC));
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * 类的字段结构，字段按名称排序保证各节点一致
+     */
+    private static final class Schema {
+        private final boolean supported;
+        private final FieldInfo[] fields;
+        private final int bitmapBytes;
+        private final int hash;
+        private final Constructor<?> constructor;
+
+        private Schema(boolean supported, FieldInfo[] fields, int hash, Constructor<?> constructor) {
+            this.supported = supported;
+            this.fields = fields;
+            this.bitmapBytes = (fields.length + 7) >>> 3;
+            this.hash = hash;
+            this.constructor = constructor;
+        }
+
+        static Schema of(Class<?> type) {
+            Schema unsupported = new Schema(false, new FieldInfo[0], 0, null);
+            if (type.isInterface() || type.isArray() || type.isPrimitive()
+                    || Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java.")) {
+                return unsupported;
+            }
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return unsupported;
+            }
+            List<Field> fieldList = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    fieldList.add(field);
+                }
+            }
+            fieldList.sort(Comparator.comparing(Field::getName));
+            FieldInfo[] fields = new FieldInfo[fieldList.size()];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fieldList.get(i);
+                Kind kind = Kind.of(field.getType());
+                if (kind == null || Modifier.isFinal(field.getModifiers())) {
+                    return unsupported;
+                }
+                try {
+                    field.setAccessible(true);
+                } catch (RuntimeException e) {
+                    return unsupported;
+                }
+                fields[i] = new FieldInfo(field, kind);
+                signature.append(';').append(field.getName()).append(':').append(kind);
+            }
+            return new Schema(true, fields, signature.toString().hashCode(), constructor);
+        }
+    }
+
+    /**
+     * 线程复用的输出缓冲区
+     */
+    private static final class Output {
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        void reset() {
+            pos = 0;
+            if (buf.length > MAX_RETAINED_BUFFER) {
+                buf = new byte[256];
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        int reserve(int n) {
+            ensure(n);
+            int start = pos;
+            Arrays.fill(buf, start, start + n, (byte) 0);
+            pos += n;
+            return start;
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeFixedInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void writeFixedLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        /**
+         * ZigZag + 变长编码，小的正负数都只占很少的字节
+         */
+        void writeVarLong(long v) {
+            ensure(10);
+            long zigzag = (v << 1) ^ (v >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[pos++] = (byte) zigzag;
+        }
+
+        /**
+         * 直接按UTF-8写入缓冲区，避免中间的byte数组
+         */
+        void writeString(String s) {
+            int len = s.length();
+            int utf8Len = 0;
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    utf8Len++;
+                } else if (c < 0x800) {
+                    utf8Len += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    utf8Len += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // 不成对的代理字符按'?'处理，与String.getBytes一致
+                    utf8Len++;
+                } else {
+                    utf8Len += 3;
+                }
+            }
+            writeVarLong(utf8Len);
+            ensure(utf8Len);
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buf[pos++] = (byte) '?';
+                } else {
+                    buf[pos++] = (byte) (0xE0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        int readFixedInt() {
+            return ((buf[pos++] & 0xFF) << 24) | ((buf[pos++] & 0xFF) << 16)
+                    | ((buf[pos++] & 0xFF) << 8) | (buf[pos++] & 0xFF);
+        }
+
+        long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String readString() {
+            int len = (int) readVarLong();
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.hmdp.utils.codec;
+
+/**
+ * 缓存值编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 是否支持该类型的编码
+     */
+    boolean supports(Class<?> type);
+
+    /**
+     * 编码
+     * @param value 非空的缓存值
+     * @return 写入Redis的字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     * @param bytes Redis中读取的字节
+     * @param type 目标类型
+     * @return 格式不匹配（如类结构已变化）时返回null，调用方按未命中处理
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils.codec;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.utils.RedisData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+
+/**
+ * CacheClient和CacheManager统一使用的缓存序列化入口
+ * 写入时按配置选择编解码器，读取时根据第一个字节的版本号选择，二进制和JSON两种格式可以同时存在
+ */
+@Slf4j
+@Component
+public class CacheSerializer {
+
+    /**
+     * 逻辑过期数据的二进制版本号：[版本号][过期时间毫秒 8字节][重建耗时毫秒 4字节][二进制编码的数据]
+     */
+    public static final byte LOGICAL_VERSION = 3;
+
+    /**
+     * 旧版本逻辑过期数据：[版本号][过期时间毫秒 8字节][二进制编码的数据]，只读
+     */
+    static final byte LEGACY_LOGICAL_VERSION = 2;
+
+    /**
+     * 空值占位
+     */
+    public static final byte[] EMPTY = new byte[0];
+
+    private final CacheCodec jsonCodec;
+    private final BinaryCacheCodec binaryCodec = new BinaryCacheCodec();
+    private final boolean binaryEnabled;
+
+    public CacheSerializer(ObjectMapper objectMapper, @Value("${hmdp.cache.codec:binary}") String codec) {
+        this.jsonCodec = new JsonCacheCodec(objectMapper);
+        this.binaryEnabled = "binary".equalsIgnoreCase(codec);
+        log.info("缓存编码格式：{}", binaryEnabled ? "binary" : "json");
+    }
+
+    public byte[] serialize(String key, Object value) {
+        return codecFor(value.getClass()).encode(value);
+    }
+
+    /**
+     * @return 无法解码时返回null，调用方按未命中处理
+     */
+    public <T> T deserialize(byte[] bytes, Class<T> type) {
+        if (bytes[0] == BinaryCacheCodec.VERSION) {
+            return binaryCodec.decode(bytes, type);
+        }
+        return jsonCodec.decode(bytes, type);
+    }
+
+    public byte[] serializeLogical(String key, Object value, LocalDateTime expireTime) {
+        return serializeLogical(key, value, expireTime, 0);
+    }
+
+    /**
+     * @param rebuildCost 本次重建耗时（毫秒），和数据一起保存
+     */
+    public byte[] serializeLogical(String key, Object value, LocalDateTime expireTime, long rebuildCost) {
+        int cost = (int) Math.min(Math.max(rebuildCost, 0), Integer.MAX_VALUE);
+        if (value != null && codecFor(value.getClass()) == binaryCodec) {
+            byte[] data = binaryCodec.encode(value);
+            return ByteBuffer.allocate(13 + data.length)
+                    .put(LOGICAL_VERSION)
+                    .putLong(expireTime.toInstant(ZoneOffset.UTC).toEpochMilli())
+                    .putInt(cost)
+                    .put(data)
+                    .array();
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildCost((long) cost);
+        return jsonCodec.encode(redisData);
+    }
+
+    /**
+     * 解析逻辑过期数据，data字段为目标类型
+     * @return 无法解码时返回null，调用方按未命中处理
+     */
+    public <T> RedisData deserializeLogical(byte[] bytes, Class<T> type) {
+        RedisData redisData;
+        if (bytes[0] == LOGICAL_VERSION || bytes[0] == LEGACY_LOGICAL_VERSION) {
+            int header = bytes[0] == LOGICAL_VERSION ? 13 : 9;
+            if (bytes.length < header) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, header - 1);
+            long expireMillis = buffer.getLong();
+            long rebuildCost = header == 13 ? buffer.getInt() : 0;
+            T data = binaryCodec.decode(Arrays.copyOfRange(bytes, header, bytes.length), type);
+            if (data == null) {
+                return null;
+            }
+            redisData = new RedisData();
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneOffset.UTC));
+            redisData.setData(data);
+            redisData.setRebuildCost(rebuildCost);
+            return redisData;
+        }
+        try {
+            redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            Object data = redisData.getData();
+            redisData.setData(data instanceof JSONObject ? JSONUtil.toBean((JSONObject) data, type) : null);
+            return redisData.getExpireTime() == null ? null : redisData;
+        } catch (Exception e) {
+            log.warn("逻辑过期数据解析失败，type: {}", type.getName(), e);
+            return null;
+        }
+    }
+
+    private CacheCodec codecFor(Class<?> type) {
+        if (!binaryEnabled || !binaryCodec.supports(type)) {
+            return jsonCodec;
+        }
+        return binaryCodec;
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.utils.codec;
+
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON编解码器，兼容旧的缓存数据
+ * 编码使用Jackson；解码先用Jackson，失败时用hutool（兼容以前hutool写入的时间戳格式）
+ */
+@Slf4j
+public class JsonCacheCodec implements CacheCodec {
+
+    private final ObjectMapper objectMapper;
+
+    public JsonCacheCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("缓存JSON序列化失败：" + value.getClass().getName(), e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            return objectMapper.readValue(bytes, type);
+        } catch (IOException e) {
+            try {
+                return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+            } catch (Exception ex) {
+                log.warn("缓存JSON反序列化失败，type: {}", type.getName(), ex);
+                return null;
+            }
+        }
+    }
+}
@@ -8,20 +8,57 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    // 更新时延迟双删保证一致性，TTL只用于淘汰冷数据
+    public static final Long CACHE_SHOP_TTL = 120L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    // 商铺本地缓存：最多缓存的条目数和存活时间（秒）
+    public static final Long CACHE_SHOP_LOCAL_SIZE = 10000L;
+    public static final Long CACHE_SHOP_LOCAL_TTL = 60L;
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    // 缓存重建锁，后面拼接缓存key，例如lock:cache:shop:1
+    public static final String LOCK_KEY = "lock:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String SECKILL_ORDER_KEY = "seckill:order:";
     public static final Long SECKILL_ORDER_TTL = 3600L; //
+    // 分段库存：分段数，以及每个分段的库存HASH和已下单用户SET，同一分段的两个key使用相同的hash tag
+    public static final String SECKILL_SEGMENTS_KEY = "seckill:segments:";
+    public static final String SECKILL_STOCK_SEGMENT_KEY = "seckill:stock:{%d_%d}";
+    public static final String SECKILL_ORDER_SEGMENT_KEY = "seckill:order:{%d_%d}";
+    // 秒杀结束时间（秒），不过期，库存key过期后用于区分秒杀已结束和秒杀券不存在
+    public static final String SECKILL_END_KEY = "seckill:end:";
+    // 秒杀订单处理状态，按订单id中的时间戳每小时一个HASH
+    public static final String ORDER_STATUS_KEY = "order:status:";
     // 缓存TTL设置
     public static final Long SECKILL_STOCK_TTL = 30L; // 秒杀库存缓存30分钟
+    public static final String VOUCHER_INFO_KEY = "voucher:";
     public static final Long VOUCHER_INFO_TTL = 60L;  // 优惠券信息缓存60分钟
     public static final Long CACHE_CLEAN_TTL = 5L;    // 清理缓存的兜底TTL 5分钟// 订单信息缓存1小时
 
+    // 布隆过滤器位图
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_BLOG_KEY = "bloom:blog";
+    public static final String BLOOM_USER_KEY = "bloom:user";
+
+    // 缓存更新失败的延迟重试队列：到期时间ZSET和消息HASH
+    public static final String CACHE_RETRY_ZSET_KEY = "retry:cache:update:due";
+    public static final String CACHE_RETRY_HASH_KEY = "retry:cache:update:msg";
+    // 秒杀订单落库失败的延迟重试队列
+    public static final String SECKILL_RETRY_ZSET_KEY = "retry:seckill:order:due";
+    public static final String SECKILL_RETRY_HASH_KEY = "retry:seckill:order:msg";
+    // 已经回补过库存的订单id，未分段的按券，分段的按分段并和分段库存使用相同的hash tag
+    public static final String SECKILL_COMPENSATED_KEY = "seckill:compensated:";
+    public static final String SECKILL_COMPENSATED_SEGMENT_KEY = "seckill:compensated:{%d_%d}";
+    // 雪花id的机器id租约，值为持有者标识
+    public static final String ID_WORKER_KEY = "id:worker:";
+    // 机器id最后发放的时间戳（秒），重新租用同一个机器id时从下一秒开始
+    public static final String ID_WORKER_LAST_KEY = "id:worker:last:";
+
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -0,0 +1,39 @@
+package com.hmdp.utils.listener;
+
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.BloomAddMessage;
+import com.hmdp.utils.bloom.BloomFilterManager;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+@Slf4j
+@Component
+public class BloomFilterListener {
+
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
+    // 每个节点使用以节点标识命名的独立消费组，重启后沿用，保证新增的id广播到所有节点的本地位图镜像
+    @KafkaListener(
+            topics = KafkaConfig.BLOOM_ADD_TOPIC,
+            groupId = "#{'bloom_add_group_' + @kafkaInstanceId}"
+    )
+    public void listenBloomAdd(ConsumerRecord<String, BloomAddMessage> record, Acknowledgment ack) {
+        BloomAddMessage message = record.value();
+        try {
+            if (message != null && message.getFilterKey() != null && message.getId() != null) {
+                bloomFilterManager.addLocal(message.getFilterKey(), message.getId());
+            }
+        } catch (Exception e) {
+            log.error("布隆过滤器本地镜像写入失败，key: {}", record.key(), e);
+        } finally {
+            // 定时重新加载Redis位图兜底，失败也直接确认
+            ack.acknowledge();
+        }
+    }
+}
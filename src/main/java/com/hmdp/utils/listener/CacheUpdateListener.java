@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.config.KafkaConfig;
 import com.hmdp.dto.CacheUpdateMessage;
 import com.hmdp.utils.CacheManager;
+import com.hmdp.utils.cache.CacheUpdateRetryQueue;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
@@ -11,6 +12,10 @@ import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -21,15 +26,63 @@ public class CacheUpdateListener {
     private CacheManager cacheManager;
     @Resource
     private ObjectMapper objectMapper;
+    @Resource
+    private CacheUpdateRetryQueue retryQueue;
 
-    // 监听缓存更新主题
-    @KafkaListener(topics = KafkaConfig.CACHE_UPDATE_TOPIC, groupId = "cache_update_group")
+    // 监听缓存更新主题（逐条消费，hmdp.kafka.cache-update-batch为false时启用）
+    @KafkaListener(topics = KafkaConfig.CACHE_UPDATE_TOPIC, groupId = "cache_update_group",
+            autoStartup = "#{!${hmdp.kafka.cache-update-batch:true}}")
     public void listenCacheUpdate(ConsumerRecord<String, CacheUpdateMessage> record, Acknowledgment ack) {
         String key = record.key();
         CacheUpdateMessage message = record.value();
 
         log.info("接收到缓存更新消息，key: {}, message: {}", key, message);
+        handleMessage(key, message);
+        // 手动确认消息（即使失败也要确认，避免消息堆积）
+        ack.acknowledge();
+    }
 
+    // 批量监听缓存更新主题：同一个key只保留最新的一条，一个pipeline写入Redis，整批确认一次
+    @KafkaListener(topics = KafkaConfig.CACHE_UPDATE_TOPIC, groupId = "cache_update_group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${hmdp.kafka.cache-update-batch:true}")
+    public void listenCacheUpdateBatch(List<ConsumerRecord<String, CacheUpdateMessage>> records, Acknowledgment ack) {
+        // 1.按key合并，同一个key的消息在同一个分区内有序，后到的覆盖先到的
+        Map<String, CacheUpdateMessage> latest = new LinkedHashMap<>(records.size());
+        for (ConsumerRecord<String, CacheUpdateMessage> record : records) {
+            CacheUpdateMessage message = record.value();
+            if (message == null || message.getCacheKey() == null) {
+                continue;
+            }
+            latest.remove(message.getCacheKey());
+            latest.put(message.getCacheKey(), message);
+        }
+        log.debug("接收到缓存更新消息{}条，合并后{}条", records.size(), latest.size());
+        // 2.一个pipeline写入，失败时逐条处理，走单条消息的重试逻辑
+        Collection<CacheUpdateMessage> messages = latest.values();
+        boolean success = false;
+        try {
+            cacheManager.applyBatch(messages);
+            success = true;
+        } catch (Exception e) {
+            log.error("批量处理缓存更新消息失败，逐条重试，数量: {}", messages.size(), e);
+            for (CacheUpdateMessage message : messages) {
+                handleMessage(message.getCacheKey(), message);
+            }
+        }
+        // 更新成功的key取消等待中的重试，避免旧值覆盖新值
+        if (success) {
+            try {
+                retryQueue.cancel(latest.keySet());
+            } catch (Exception e) {
+                log.warn("取消缓存更新重试失败，数量: {}", latest.size(), e);
+            }
+        }
+        // 3.整批确认一次
+        ack.acknowledge();
+    }
+
+    private void handleMessage(String key, CacheUpdateMessage message) {
         try {
             if (CacheUpdateMessage.TYPE_UPDATE.equals(message.getType())) {
                 // 更新缓存
@@ -45,47 +98,11 @@ public class CacheUpdateListener {
                 cacheManager.deleteCache(message.getCacheKey());
                 log.info("缓存删除成功，key: {}", message.getCacheKey());
             }
-
-            // 手动确认消息
-            ack.acknowledge();
         } catch (Exception e) {
             log.error("处理缓存更新消息失败，key: {}, message: {}", key, message, e);
 
-            // 检查是否可以重试
-            if (message.canRetry()) {
-                message.incrementRetry();
-                // 延迟重试（梯度重试策略）
-                long delay = getRetryDelay(message.getRetryCount());
-                log.info("缓存更新失败，准备{}秒后重试，重试次数: {}", delay, message.getRetryCount());
-
-                // 延迟重新发送消息
-                try {
-                    Thread.sleep(delay * 1000);
-                    // 重新发送到同一主题
-                    // 这里需要使用KafkaTemplate重新发送，但为了避免循环依赖，建议使用定时任务处理
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
-            } else {
-                // 达到最大重试次数，发送到清理队列
-                log.error("缓存更新重试次数已达上限，发送清理消息，key: {}", key);
-                cacheManager.sendCacheCleanMessage(key);
-            }
-
-            // 手动确认消息（即使失败也要确认，避免消息堆积）
-            ack.acknowledge();
-        }
-    }
-
-    /**
-     * 计算重试延迟时间（梯度重试策略）
-     */
-    private long getRetryDelay(int retryCount) {
-        switch (retryCount) {
-            case 1: return 1;   // 首次重试：1秒
-            case 2: return 5;   // 第二次重试：5秒
-            case 3: return 10;  // 第三次重试：10秒
-            default: return 30; // 其他情况：30秒
+            // 加入延迟重试队列，不阻塞消费线程；重试次数用完后发送到死信主题
+            retryQueue.retry(message);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,41 @@
+package com.hmdp.utils.listener;
+
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.CacheUpdateMessage;
+import com.hmdp.utils.CacheManager;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+@Slf4j
+@Component
+public class LocalCacheEvictListener {
+
+    @Resource
+    private CacheManager cacheManager;
+
+    // 每个节点使用以节点标识命名的独立消费组，重启后沿用，保证缓存更新/清理消息广播到所有节点的本地缓存
+    @KafkaListener(
+            topics = {KafkaConfig.CACHE_UPDATE_TOPIC, KafkaConfig.CACHE_CLEAN_TOPIC, KafkaConfig.LOCAL_CACHE_EVICT_TOPIC},
+            groupId = "#{'local_cache_evict_group_' + @kafkaInstanceId}"
+    )
+    public void listenLocalCacheEvict(ConsumerRecord<String, CacheUpdateMessage> record, Acknowledgment ack) {
+        CacheUpdateMessage message = record.value();
+        try {
+            if (message != null && message.getCacheKey() != null) {
+                // 更新和删除都只做失效，下次查询时从Redis重新加载
+                cacheManager.evictLocalCache(message.getCacheKey());
+                log.debug("本地缓存失效成功，key: {}", message.getCacheKey());
+            }
+        } catch (Exception e) {
+            log.error("本地缓存失效失败，key: {}", record.key(), e);
+        } finally {
+            // 本地缓存有TTL兜底，失败也直接确认
+            ack.acknowledge();
+        }
+    }
+}
@@ -3,31 +3,104 @@ package com.hmdp.utils.listener;
 import com.hmdp.config.KafkaConfig;
 import com.hmdp.dto.SeckillMessage;
 import com.hmdp.service.IVoucherOrderService;
-import com.sun.xml.internal.bind.v2.TODO;
+import com.hmdp.utils.seckill.OrderStatusStore;
+import com.hmdp.utils.seckill.OrderStatusStore.Status;
+import com.hmdp.utils.seckill.SeckillCompensator;
+import com.hmdp.utils.seckill.SeckillOrderRetryQueue;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 @Slf4j
 @Component
 public class SeckillOrderListener {
 
     @Autowired
     private IVoucherOrderService voucherOrderService;
+    @Autowired
+    private OrderStatusStore orderStatusStore;
+    @Autowired
+    private SeckillOrderRetryQueue retryQueue;
+    @Autowired
+    private SeckillCompensator compensator;
 
-    @KafkaListener(topics = KafkaConfig.SECKILL_ORDER_TOPIC, groupId = "seckill_group")
+    // 逐条消费（hmdp.kafka.seckill-order-batch为false时启用）
+    @KafkaListener(topics = KafkaConfig.SECKILL_ORDER_TOPIC, groupId = "seckill_group",
+            autoStartup = "#{!${hmdp.kafka.seckill-order-batch:true}}")
     public void listenSeckillOrder(@Payload SeckillMessage message, Acknowledgment ack) {
         log.info("接收到秒杀订单信息:{}", message);
         try {
-            voucherOrderService.createVoucherOrder(message);
-            // 手动确认消息
-            ack.acknowledge();
+            boolean created = voucherOrderService.createVoucherOrder(message);
+            orderStatusStore.markAll(Collections.singletonMap(message.getOrderId(), created ? Status.CREATED : Status.FAILED));
         } catch (Exception e) {
             log.error("处理秒杀订单失败:{}", message, e);
-            // TODO 可以添加重试机制或死信队列处理
+            // 加入延迟重试队列，状态保持PENDING；重试次数用完后发送到死信主题
+            retryQueue.retry(message);
+        }
+        // 手动确认消息
+        ack.acknowledge();
+    }
+
+    // 批量消费：一次最多拉取batch-size条，在一个事务中批量创建订单，事务提交后整批确认
+    @KafkaListener(topics = KafkaConfig.SECKILL_ORDER_TOPIC, groupId = "seckill_group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${hmdp.kafka.seckill-order-batch:true}",
+            properties = "max.poll.records=${hmdp.kafka.seckill-order-batch-size:200}")
+    public void listenSeckillOrderBatch(List<ConsumerRecord<String, SeckillMessage>> records, Acknowledgment ack) {
+        List<SeckillMessage> messages = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, SeckillMessage> record : records) {
+            if (record.value() != null) {
+                messages.add(record.value());
+            }
+        }
+        log.debug("接收到秒杀订单信息{}条", messages.size());
+        Map<Long, Status> statuses = new HashMap<>(messages.size());
+        try {
+            Set<Long> created = voucherOrderService.createVoucherOrders(messages);
+            for (SeckillMessage message : messages) {
+                statuses.put(message.getOrderId(), created.contains(message.getOrderId()) ? Status.CREATED : Status.FAILED);
+            }
+        } catch (Exception e) {
+            // 整批已回滚，逐条处理，定位失败的订单
+            log.error("批量处理秒杀订单失败，逐条重试，数量: {}", messages.size(), e);
+            for (SeckillMessage message : messages) {
+                try {
+                    boolean created = voucherOrderService.createVoucherOrder(message);
+                    statuses.put(message.getOrderId(), created ? Status.CREATED : Status.FAILED);
+                } catch (Exception ex) {
+                    log.error("处理秒杀订单失败:{}", message, ex);
+                    retryQueue.retry(message);
+                }
+            }
+        }
+        // 一个pipeline写入整批的状态
+        orderStatusStore.markAll(statuses);
+        ack.acknowledge();
+    }
+
+    // 死信主题：重试次数用完的订单，整批回补Redis库存
+    @KafkaListener(topics = KafkaConfig.SECKILL_ORDER_DLT_TOPIC, groupId = "seckill_compensate_group",
+            containerFactory = "batchKafkaListenerContainerFactory")
+    public void listenSeckillOrderDlt(List<ConsumerRecord<String, SeckillMessage>> records, Acknowledgment ack) {
+        List<SeckillMessage> messages = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, SeckillMessage> record : records) {
+            if (record.value() != null) {
+                messages.add(record.value());
+            }
         }
+        // 补偿失败不确认，重新投递时由已回补集合保证不会重复回补
+        compensator.compensate(messages);
+        ack.acknowledge();
     }
 }
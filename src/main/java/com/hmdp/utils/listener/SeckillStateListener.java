@@ -0,0 +1,40 @@
+package com.hmdp.utils.listener;
+
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.SeckillStateMessage;
+import com.hmdp.utils.seckill.SeckillStateTable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+@Slf4j
+@Component
+public class SeckillStateListener {
+
+    @Resource
+    private SeckillStateTable seckillStateTable;
+
+    // 每个节点使用以节点标识命名的独立消费组，重启后沿用，保证秒杀券状态广播到所有节点
+    @KafkaListener(
+            topics = KafkaConfig.SECKILL_STATE_TOPIC,
+            groupId = "#{'seckill_state_group_' + @kafkaInstanceId}"
+    )
+    public void listenSeckillState(ConsumerRecord<String, SeckillStateMessage> record, Acknowledgment ack) {
+        SeckillStateMessage message = record.value();
+        try {
+            if (message != null && message.getVoucherId() != null) {
+                seckillStateTable.apply(message);
+                log.debug("秒杀券状态更新，voucherId: {}, state: {}", message.getVoucherId(), message.getState());
+            }
+        } catch (Exception e) {
+            log.error("秒杀券状态更新失败，voucherId: {}", record.key(), e);
+        } finally {
+            // 状态有失效时间兜底，失败也直接确认
+            ack.acknowledge();
+        }
+    }
+}
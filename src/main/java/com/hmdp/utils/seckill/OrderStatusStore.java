@@ -0,0 +1,139 @@
+package com.hmdp.utils.seckill;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.constants.RedisConstants.ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单处理状态：订单id -> PENDING/CREATED/FAILED
+ * 1.下单成功时只记录订单所属的用户，有用户记录、查不到状态即为PENDING
+ *   查询时校验用户，其他用户的订单和不存在的订单都返回NOT_FOUND，订单id可以猜测，不能泄露其他用户的订单
+ * 2.消费者落库后按批次用一个pipeline写入CREATED或FAILED
+ * 3.订单id高32位是秒级时间戳，按小时分成多个HASH，整个HASH过期，不需要逐条清理
+ */
+@Slf4j
+@Component
+public class OrderStatusStore {
+
+    public enum Status {
+        PENDING, CREATED, FAILED,
+        /**
+         * 订单不存在或不属于当前用户，只作为查询结果，不会写入
+         */
+        NOT_FOUND;
+
+        public boolean isFinished() {
+            return this != PENDING;
+        }
+    }
+
+    private static final long BUCKET_SECONDS = 3600;
+    /**
+     * 订单所属用户的字段后缀，和状态保存在同一个HASH中
+     */
+    private static final String OWNER_SUFFIX = ":user";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.order-status.ttl-hours:24}")
+    private long ttlHours;
+
+    static String key(Long orderId) {
+        return ORDER_STATUS_KEY + (orderId >>> 32) / BUCKET_SECONDS;
+    }
+
+    /**
+     * 一个pipeline批量写入状态
+     */
+    public void markAll(Map<Long, Status> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        try {
+            Set<String> keys = new HashSet<>();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<Long, Status> entry : statuses.entrySet()) {
+                    String key = key(entry.getKey());
+                    keys.add(key);
+                    connection.hashCommands().hSet(key.getBytes(StandardCharsets.UTF_8),
+                            entry.getKey().toString().getBytes(StandardCharsets.UTF_8),
+                            entry.getValue().name().getBytes(StandardCharsets.UTF_8));
+                }
+                for (String key : keys) {
+                    connection.keyCommands().expire(key.getBytes(StandardCharsets.UTF_8), TimeUnit.HOURS.toSeconds(ttlHours));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 状态只用于查询，写入失败时客户端最终通过订单查询得到结果
+            log.error("写入订单状态失败，数量: {}", statuses.size(), e);
+        }
+    }
+
+    /**
+     * 下单成功时记录订单所属的用户
+     */
+    public void register(Long orderId, Long userId) {
+        String key = key(orderId);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                connection.hashCommands().hSet(rawKey, (orderId + OWNER_SUFFIX).getBytes(StandardCharsets.UTF_8),
+                        userId.toString().getBytes(StandardCharsets.UTF_8));
+                connection.keyCommands().expire(rawKey, TimeUnit.HOURS.toSeconds(ttlHours));
+                return null;
+            });
+        } catch (Exception e) {
+            // 不影响下单，客户端查不到状态时通过订单查询得到结果
+            log.error("记录订单所属用户失败，orderId: {}", orderId, e);
+        }
+    }
+
+    /**
+     * 查询当前用户的订单状态，一次HMGET同时读取所属用户和状态
+     */
+    public Status get(Long orderId, Long userId) {
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(key(orderId), Arrays.asList(orderId + OWNER_SUFFIX, orderId.toString()));
+        Object owner = values.get(0);
+        if (owner == null || !owner.toString().equals(userId.toString())) {
+            return Status.NOT_FOUND;
+        }
+        Object status = values.get(1);
+        return status == null ? Status.PENDING : Status.valueOf(status.toString());
+    }
+
+    /**
+     * 一个pipeline批量查询状态
+     */
+    public Map<Long, Status> getAll(List<Long> orderIds) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long orderId : orderIds) {
+                connection.hashCommands().hGet(key(orderId).getBytes(StandardCharsets.UTF_8),
+                        orderId.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        Map<Long, Status> statuses = new HashMap<>(orderIds.size());
+        for (int i = 0; i < orderIds.size(); i++) {
+            Object status = results.get(i);
+            statuses.put(orderIds.get(i), status == null ? Status.PENDING : Status.valueOf(status.toString()));
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils.seckill;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 订单状态推送：客户端通过SSE等待订单结果，不再轮询接口
+ * 本节点所有等待中的订单由一个定时任务统一查询，每轮一个pipeline，和等待的连接数无关
+ */
+@Slf4j
+@Component
+public class OrderStatusWatcher {
+
+    @Resource
+    private OrderStatusStore orderStatusStore;
+
+    @Value("${hmdp.order-status.sse-timeout-millis:30000}")
+    private long timeoutMillis;
+
+    /**
+     * 订单id -> 等待该订单的连接
+     */
+    private final Map<Long, Set<SseEmitter>> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅时校验订单属于当前用户，不存在或其他用户的订单直接推送NOT_FOUND
+     */
+    public SseEmitter watch(Long orderId, Long userId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        OrderStatusStore.Status status = orderStatusStore.get(orderId, userId);
+        if (status.isFinished()) {
+            send(emitter, status);
+            return emitter;
+        }
+        waiting.computeIfAbsent(orderId, id -> ConcurrentHashMap.newKeySet()).add(emitter);
+        Runnable remove = () -> waiting.computeIfPresent(orderId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+        emitter.onCompletion(remove);
+        emitter.onTimeout(() -> {
+            // 超时时返回当前状态，客户端重新订阅
+            remove.run();
+            send(emitter, OrderStatusStore.Status.PENDING);
+        });
+        emitter.onError(e -> remove.run());
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.order-status.poll-interval-millis:200}")
+    public void poll() {
+        if (waiting.isEmpty()) {
+            return;
+        }
+        List<Long> orderIds = new ArrayList<>(waiting.keySet());
+        Map<Long, OrderStatusStore.Status> statuses;
+        try {
+            statuses = orderStatusStore.getAll(orderIds);
+        } catch (Exception e) {
+            log.error("查询订单状态失败，数量: {}", orderIds.size(), e);
+            return;
+        }
+        for (Map.Entry<Long, OrderStatusStore.Status> entry : statuses.entrySet()) {
+            if (!entry.getValue().isFinished()) {
+                continue;
+            }
+            Set<SseEmitter> emitters = waiting.remove(entry.getKey());
+            if (emitters != null) {
+                emitters.forEach(emitter -> send(emitter, entry.getValue()));
+            }
+        }
+    }
+
+    private static void send(SseEmitter emitter, OrderStatusStore.Status status) {
+        try {
+            emitter.send(SseEmitter.event().name("status").data(status.name()));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // 连接已经断开
+            emitter.completeWithError(e);
+        }
+    }
+}
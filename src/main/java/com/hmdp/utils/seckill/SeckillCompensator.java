@@ -0,0 +1,102 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.dto.SeckillMessage;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.seckill.OrderStatusStore.Status;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+import static com.hmdp.utils.constants.RedisConstants.*;
+
+/**
+ * 秒杀订单补偿：重试次数用完的订单已经在Redis中扣减了库存、记录了用户，需要回补，否则库存会泄漏
+ * 1.先排除实际已经落库的订单（落库成功但确认消息失败）
+ * 2.按库存分段分组，每组一次Lua调用：回补库存并把用户从已下单集合中移除，同一个订单只回补一次
+ * 3.回补后清除各节点的售罄状态，订单状态标记为失败
+ */
+@Slf4j
+@Component
+public class SeckillCompensator {
+
+    private static final DefaultRedisScript<Long> COMPENSATE_SCRIPT;
+    static {
+        COMPENSATE_SCRIPT = new DefaultRedisScript<>();
+        COMPENSATE_SCRIPT.setLocation(new ClassPathResource("seckill_compensate.lua"));
+        COMPENSATE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SegmentedStock segmentedStock;
+    @Resource
+    private SeckillStateTable seckillStateTable;
+    @Resource
+    private OrderStatusStore orderStatusStore;
+
+    /**
+     * @return 实际回补的订单数
+     */
+    public long compensate(List<SeckillMessage> messages) {
+        Map<Long, SeckillMessage> byOrderId = new LinkedHashMap<>(messages.size());
+        for (SeckillMessage message : messages) {
+            byOrderId.putIfAbsent(message.getOrderId(), message);
+        }
+        if (byOrderId.isEmpty()) {
+            return 0;
+        }
+        // 1.排除已经落库的订单
+        Set<Long> persisted = new HashSet<>();
+        for (VoucherOrder order : voucherOrderService.listByIds(byOrderId.keySet())) {
+            persisted.add(order.getId());
+        }
+        // 2.按库存所在的slot分组：未分段的按券，分段的按用户所属的分段
+        Map<List<String>, List<String>> groups = new LinkedHashMap<>();
+        Map<Long, Status> statuses = new HashMap<>(byOrderId.size());
+        Set<Long> voucherIds = new HashSet<>();
+        for (SeckillMessage message : byOrderId.values()) {
+            if (persisted.contains(message.getOrderId())) {
+                statuses.put(message.getOrderId(), Status.CREATED);
+                continue;
+            }
+            Long voucherId = message.getVoucherId();
+            int segments = segmentedStock.segments(voucherId);
+            List<String> keys;
+            if (segments > 1) {
+                int segment = SegmentedStock.segmentOf(message.getUserId(), segments);
+                keys = Arrays.asList(SegmentedStock.compensatedKey(voucherId, segment),
+                        SegmentedStock.stockKey(voucherId, segment), SegmentedStock.orderKey(voucherId, segment));
+            } else {
+                keys = Arrays.asList(SECKILL_COMPENSATED_KEY + voucherId,
+                        SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId);
+            }
+            List<String> args = groups.computeIfAbsent(keys, k -> new ArrayList<>());
+            args.add(message.getOrderId().toString());
+            args.add(message.getUserId().toString());
+            statuses.put(message.getOrderId(), Status.FAILED);
+            voucherIds.add(voucherId);
+        }
+        // 3.每组一次Lua调用，集群中不会跨slot
+        long restored = 0;
+        for (Map.Entry<List<String>, List<String>> group : groups.entrySet()) {
+            Long result = stringRedisTemplate.execute(COMPENSATE_SCRIPT, group.getKey(), group.getValue().toArray());
+            restored += result == null ? 0 : result;
+        }
+        // 4.库存回补后各节点重新由Lua脚本判断是否售罄
+        if (restored > 0) {
+            voucherIds.forEach(seckillStateTable::clear);
+        }
+        orderStatusStore.markAll(statuses);
+        log.warn("秒杀订单补偿完成，死信订单: {}，已落库: {}，回补库存: {}", byOrderId.size(), persisted.size(), restored);
+        return restored;
+    }
+}
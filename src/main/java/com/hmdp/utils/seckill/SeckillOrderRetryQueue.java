@@ -0,0 +1,135 @@
+package com.hmdp.utils.seckill;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.SeckillMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hmdp.utils.constants.RedisConstants.SECKILL_RETRY_HASH_KEY;
+import static com.hmdp.utils.constants.RedisConstants.SECKILL_RETRY_ZSET_KEY;
+
+/**
+ * 秒杀订单落库失败的延迟重试队列，和缓存更新的重试队列结构相同
+ * 1.失败的订单按1/5/10/30秒的梯度写入Redis：ZSET保存到期时间，HASH保存消息，都以订单id为key
+ * 2.定时任务批量取出到期的订单，重新发送到秒杀订单主题
+ * 3.重试次数用完后发送到死信主题，由SeckillCompensator回补Redis库存
+ */
+@Slf4j
+@Component
+public class SeckillOrderRetryQueue {
+
+    private static final DefaultRedisScript<List> POP_SCRIPT;
+    static {
+        POP_SCRIPT = new DefaultRedisScript<>();
+        POP_SCRIPT.setLocation(new ClassPathResource("retry_pop.lua"));
+        POP_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private KafkaTemplate<String, Object> kafkaTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Value("${hmdp.kafka.retry.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 处理失败的订单：还能重试时加入延迟队列，否则发送到死信主题
+     */
+    public void retry(SeckillMessage message) {
+        if (!message.canRetry()) {
+            deadLetter(message);
+            return;
+        }
+        message.incrementRetry();
+        long delay = getRetryDelay(message.getRetryCount());
+        try {
+            enqueue(message, delay);
+            log.info("秒杀订单落库失败，{}秒后重试，重试次数: {}，订单ID: {}", delay, message.getRetryCount(), message.getOrderId());
+        } catch (Exception e) {
+            log.error("写入重试队列失败，订单ID: {}", message.getOrderId(), e);
+            deadLetter(message);
+        }
+    }
+
+    /**
+     * 定时取出到期的订单，批量重新发送
+     */
+    @Scheduled(fixedDelayString = "${hmdp.kafka.retry.poll-interval-millis:500}")
+    public void republishDueMessages() {
+        List<?> due;
+        try {
+            due = stringRedisTemplate.execute(POP_SCRIPT,
+                    Arrays.asList(SECKILL_RETRY_ZSET_KEY, SECKILL_RETRY_HASH_KEY),
+                    String.valueOf(System.currentTimeMillis()), String.valueOf(batchSize));
+        } catch (Exception e) {
+            log.error("读取秒杀订单重试队列失败", e);
+            return;
+        }
+        if (due == null || due.isEmpty()) {
+            return;
+        }
+        for (Object json : due) {
+            SeckillMessage message;
+            try {
+                message = objectMapper.readValue(json.toString(), SeckillMessage.class);
+            } catch (JsonProcessingException e) {
+                log.error("重试订单解析失败，message: {}", json, e);
+                continue;
+            }
+            kafkaTemplate.send(KafkaConfig.SECKILL_ORDER_TOPIC, message)
+                    .addCallback(result -> { }, ex -> {
+                        // 发送失败，1秒后再次尝试，不增加重试次数
+                        log.error("重试订单发送失败，订单ID: {}", message.getOrderId(), ex);
+                        try {
+                            enqueue(message, 1);
+                        } catch (Exception e) {
+                            deadLetter(message);
+                        }
+                    });
+        }
+        log.info("重新发送秒杀订单{}条", due.size());
+    }
+
+    private void deadLetter(SeckillMessage message) {
+        log.error("秒杀订单重试次数已达上限，发送到死信主题，订单ID: {}", message.getOrderId());
+        kafkaTemplate.send(KafkaConfig.SECKILL_ORDER_DLT_TOPIC, message.getOrderId().toString(), message);
+    }
+
+    /**
+     * 先写消息再写到期时间，取出时一定能读到消息
+     */
+    private void enqueue(SeckillMessage message, long delaySeconds) throws JsonProcessingException {
+        String orderId = message.getOrderId().toString();
+        String json = objectMapper.writeValueAsString(message);
+        long dueTime = System.currentTimeMillis() + delaySeconds * 1000;
+        stringRedisTemplate.opsForHash().put(SECKILL_RETRY_HASH_KEY, orderId, json);
+        stringRedisTemplate.opsForZSet().add(SECKILL_RETRY_ZSET_KEY, orderId, dueTime);
+    }
+
+    /**
+     * 计算重试延迟时间（梯度重试策略）
+     */
+    private long getRetryDelay(int retryCount) {
+        switch (retryCount) {
+            case 1: return 1;   // 首次重试：1秒
+            case 2: return 5;   // 第二次重试：5秒
+            case 3: return 10;  // 第三次重试：10秒
+            default: return 30; // 其他情况：30秒
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.SeckillStateMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本节点的秒杀券状态表：已售罄、未开始、已结束的秒杀券直接拒绝，不再生成订单id和执行Lua脚本
+ * 1.状态来自Lua脚本的返回结果，本节点第一次得到某个状态时通过Kafka广播给所有节点
+ * 2.每个状态都有失效时间，失效后重新由Lua脚本判断，库存回补后也可以主动清除
+ */
+@Slf4j
+@Component
+public class SeckillStateTable {
+
+    public enum State {
+        SOLD_OUT(1, "库存不足"),
+        NOT_STARTED(4, "秒杀尚未开始"),
+        ENDED(5, "秒杀已经结束");
+
+        private final int code;
+        private final String message;
+
+        State(int code, String message) {
+            this.code = code;
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Lua脚本的返回值对应的状态，其他返回值为null
+         */
+        public static State of(long code) {
+            for (State state : values()) {
+                if (state.code == code) {
+                    return state;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final Map<State, Long> ttlMillis = new EnumMap<>(State.class);
+    private final Map<State, Counter> rejected = new EnumMap<>(State.class);
+    private final Counter broadcastFailures;
+    private final Map<Long, Entry> states = new ConcurrentHashMap<>();
+
+    public SeckillStateTable(KafkaTemplate<String, Object> kafkaTemplate, MeterRegistry meterRegistry,
+                             @Value("${hmdp.seckill.state.sold-out-ttl-millis:10000}") long soldOutTtlMillis,
+                             @Value("${hmdp.seckill.state.not-started-ttl-millis:1000}") long notStartedTtlMillis,
+                             @Value("${hmdp.seckill.state.ended-ttl-millis:600000}") long endedTtlMillis) {
+        this.kafkaTemplate = kafkaTemplate;
+        ttlMillis.put(State.SOLD_OUT, soldOutTtlMillis);
+        ttlMillis.put(State.NOT_STARTED, notStartedTtlMillis);
+        ttlMillis.put(State.ENDED, endedTtlMillis);
+        for (State state : State.values()) {
+            rejected.put(state, Counter.builder("seckill.state.rejected")
+                    .tag("state", state.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        this.broadcastFailures = Counter.builder("seckill.state.broadcast.failures")
+                .description("秒杀券状态广播失败次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 查询本地状态
+     * @return 需要直接拒绝时返回提示信息，否则返回null
+     */
+    public String rejectReason(Long voucherId) {
+        Entry entry = states.get(voucherId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expireAt) {
+            states.remove(voucherId, entry);
+            return null;
+        }
+        rejected.get(entry.state).increment();
+        return entry.state.message;
+    }
+
+    /**
+     * 记录Lua脚本的返回结果，状态发生变化时广播
+     */
+    public void record(Long voucherId, long result) {
+        State state = State.of(result);
+        if (state == null) {
+            return;
+        }
+        long expireAt = System.currentTimeMillis() + ttlMillis.get(state);
+        if (mark(voucherId, state, expireAt)) {
+            publish(voucherId, state, expireAt);
+        }
+    }
+
+    /**
+     * 新增秒杀券时广播未开始状态，在开始时间之前各节点都不需要访问Redis
+     */
+    public void markNotStarted(Long voucherId, LocalDateTime beginTime) {
+        long expireAt = beginTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (expireAt > System.currentTimeMillis()) {
+            mark(voucherId, State.NOT_STARTED, expireAt);
+            publish(voucherId, State.NOT_STARTED, expireAt);
+        }
+    }
+
+    /**
+     * 库存回补等情况下清除所有节点上的状态
+     */
+    public void clear(Long voucherId) {
+        states.remove(voucherId);
+        publish(voucherId, null, null);
+    }
+
+    /**
+     * 应用其他节点广播的状态，只修改本地，不再广播
+     */
+    public void apply(SeckillStateMessage message) {
+        if (message.getState() == null) {
+            states.remove(message.getVoucherId());
+            return;
+        }
+        mark(message.getVoucherId(), State.valueOf(message.getState()), message.getExpireAt());
+    }
+
+    /**
+     * @return 状态是否发生变化
+     */
+    private boolean mark(Long voucherId, State state, long expireAt) {
+        Entry entry = new Entry(state, expireAt);
+        Entry old = states.put(voucherId, entry);
+        return old == null || old.state != state || System.currentTimeMillis() >= old.expireAt;
+    }
+
+    private void publish(Long voucherId, State state, Long expireAt) {
+        SeckillStateMessage message = new SeckillStateMessage(voucherId, state == null ? null : state.name(), expireAt);
+        try {
+            kafkaTemplate.send(KafkaConfig.SECKILL_STATE_TOPIC, voucherId.toString(), message)
+                    .addCallback(result -> { }, ex -> {
+                        broadcastFailures.increment();
+                        log.warn("秒杀券状态广播失败，voucherId: {}", voucherId, ex);
+                    });
+        } catch (Exception e) {
+            // 广播失败不影响本节点，其他节点由Lua脚本判断
+            broadcastFailures.increment();
+            log.warn("秒杀券状态广播失败，voucherId: {}", voucherId, e);
+        }
+    }
+
+    private static final class Entry {
+        private final State state;
+        private final long expireAt;
+
+        private Entry(State state, long expireAt) {
+            this.state = state;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.dto.SeckillStockSnapshot;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SimpleRedisLock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.dto.SeckillStockInfo.epochSecond;
+import static com.hmdp.utils.constants.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.constants.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存对账：定时比较未结束秒杀券的Redis库存和MySQL库存，修复偏差
+ * 1.Redis的 库存+已下单用户数 和MySQL的 库存+订单数 在下单、落库、补偿时都保持不变，不相等就是偏差
+ *   已下单用户数-订单数 就是这张券还在Kafka中等待落库的订单数
+ * 2.按主键分页，一页一条SQL读出库存和订单数，一次pipeline读取各分段的HGET/SCARD，每条命令只访问一个key，
+ *   分段库存分布在集群的不同slot也可以读取，偏差在Java中汇总计算
+ * 3.同一张券连续两轮偏差相同才修复，修复前重新读取确认偏差没有变化，再用单key脚本在库存最多的分段上HINCRBY，
+ *   不覆盖并发的扣减；下单、落库、补偿都不改变偏差，两次读取之间的并发下单不影响结果
+ * 4.已下单集合丢失时不修正库存，先从MySQL重建集合，避免一人多单和超卖
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    private static final DefaultRedisScript<Long> RECONCILE_SCRIPT;
+    static {
+        RECONCILE_SCRIPT = new DefaultRedisScript<>();
+        RECONCILE_SCRIPT.setLocation(new ClassPathResource("seckill_reconcile.lua"));
+        RECONCILE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SegmentedStock segmentedStock;
+    @Resource
+    private SeckillStateTable seckillStateTable;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.reconcile.repair:true}")
+    private boolean repair;
+    @Value("${hmdp.seckill.reconcile.page-size:200}")
+    private int pageSize;
+    @Value("${hmdp.seckill.reconcile.lock-seconds:60}")
+    private long lockSeconds;
+
+    /**
+     * 上一轮发现的偏差，只在持有锁的定时任务线程中访问
+     */
+    private Map<Long, Long> lastDrifts = new HashMap<>();
+
+    private final AtomicLong driftVouchers = new AtomicLong();
+    private final AtomicLong inflightOrders = new AtomicLong();
+    private DistributionSummary driftSummary;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("seckill.stock.drift.vouchers", driftVouchers, AtomicLong::get)
+                .description("上一轮对账存在偏差的秒杀券数量")
+                .register(meterRegistry);
+        Gauge.builder("seckill.stock.inflight", inflightOrders, AtomicLong::get)
+                .description("Redis已扣减、还没有落库的秒杀订单数")
+                .register(meterRegistry);
+        driftSummary = DistributionSummary.builder("seckill.stock.drift")
+                .description("单张秒杀券的库存偏差绝对值")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.reconcile.interval-millis:30000}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+        SimpleRedisLock lock = new SimpleRedisLock("seckill:reconcile", stringRedisTemplate);
+        try {
+            if (!lock.tryLock(lockSeconds)) {
+                return;
+            }
+        } catch (Exception e) {
+            log.error("获取秒杀库存对账锁失败", e);
+            return;
+        }
+        try {
+            Map<Long, Long> drifts = new HashMap<>();
+            long inflight = 0;
+            long lastId = 0;
+            while (true) {
+                List<SeckillStockSnapshot> page = seckillVoucherMapper.queryStockSnapshot(lastId, LocalDateTime.now(), pageSize);
+                if (page.isEmpty()) {
+                    break;
+                }
+                inflight += reconcilePage(page, drifts);
+                lastId = page.get(page.size() - 1).getVoucherId();
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            lastDrifts = drifts;
+            driftVouchers.set(drifts.size());
+            inflightOrders.set(inflight);
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 对账一页秒杀券
+     * @return 这一页还没有落库的订单数
+     */
+    private long reconcilePage(List<SeckillStockSnapshot> page, Map<Long, Long> drifts) {
+        // 1.一次pipeline读取整页的Redis库存和已下单用户数
+        List<StockState> states = readPipelined(page);
+        List<SeckillStockSnapshot> toRepair = new ArrayList<>();
+        long inflight = 0;
+        for (int i = 0; i < page.size(); i++) {
+            SeckillStockSnapshot snapshot = page.get(i);
+            StockState state = states.get(i);
+            // 落库的订单一定经过Redis，用户数比订单数少说明集合丢失，此时修正库存会导致超卖
+            if (state.users < snapshot.getOrderCount()) {
+                count("order_set_lost");
+                log.error("秒杀券已下单集合丢失，从数据库重建，voucherId: {}, 用户数: {}, 订单数: {}",
+                        snapshot.getVoucherId(), state.users, snapshot.getOrderCount());
+                rebuildOrderSet(snapshot);
+                continue;
+            }
+            inflight += state.users - snapshot.getOrderCount();
+            long drift = state.drift(snapshot);
+            if (drift == 0) {
+                count("consistent");
+                continue;
+            }
+            drifts.put(snapshot.getVoucherId(), drift);
+            driftSummary.record(Math.abs(drift));
+            // 2.连续两轮偏差相同才修复，排除新增秒杀券时先写MySQL后写Redis之类的短暂不一致
+            if (repair && Long.valueOf(drift).equals(lastDrifts.get(snapshot.getVoucherId()))) {
+                toRepair.add(snapshot);
+            } else {
+                count("drift");
+                log.warn("秒杀库存存在偏差，voucherId: {}, Redis库存: {}, 偏差: {}",
+                        snapshot.getVoucherId(), state.stock, drift);
+            }
+        }
+        if (toRepair.isEmpty()) {
+            return inflight;
+        }
+        // 3.重新读取，偏差没有变化才逐个分段修复
+        states = readPipelined(toRepair);
+        for (int i = 0; i < toRepair.size(); i++) {
+            SeckillStockSnapshot snapshot = toRepair.get(i);
+            StockState state = states.get(i);
+            long drift = state.drift(snapshot);
+            if (state.users < snapshot.getOrderCount() || !Long.valueOf(drift).equals(drifts.get(snapshot.getVoucherId()))) {
+                continue;
+            }
+            Long stock = repair(snapshot, state, drift);
+            count("repaired");
+            drifts.remove(snapshot.getVoucherId());
+            log.warn("秒杀库存已修复，voucherId: {}, 修复后分段库存: {}, 偏差: {}", snapshot.getVoucherId(), stock, drift);
+            if (drift < 0) {
+                // 补回了库存，各节点重新由Lua脚本判断是否售罄
+                seckillStateTable.clear(snapshot.getVoucherId());
+            }
+        }
+        return inflight;
+    }
+
+    /**
+     * 重新创建丢失的分段，偏差修正在库存最多的分段上，每次脚本调用只访问一个key
+     * @return 修正的分段修正后的库存
+     */
+    private Long repair(SeckillStockSnapshot snapshot, StockState state, long drift) {
+        String begin = String.valueOf(epochSecond(snapshot.getBeginTime()));
+        String end = String.valueOf(epochSecond(snapshot.getEndTime()));
+        String target = state.target != null ? state.target : state.missing.get(0);
+        for (String key : state.missing) {
+            if (!key.equals(target)) {
+                stringRedisTemplate.execute(RECONCILE_SCRIPT, Collections.singletonList(key), "0", begin, end);
+            }
+        }
+        return stringRedisTemplate.execute(RECONCILE_SCRIPT, Collections.singletonList(target),
+                String.valueOf(-drift), begin, end);
+    }
+
+    /**
+     * 一次pipeline读取每张券各分段的库存和已下单用户数
+     */
+    private List<StockState> readPipelined(List<SeckillStockSnapshot> snapshots) {
+        List<List<String>> keys = new ArrayList<>(snapshots.size());
+        for (SeckillStockSnapshot snapshot : snapshots) {
+            keys.add(keysOf(snapshot.getVoucherId()));
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (List<String> voucherKeys : keys) {
+                for (int i = 0; i < voucherKeys.size(); i += 2) {
+                    connection.hashCommands().hGet(voucherKeys.get(i).getBytes(StandardCharsets.UTF_8),
+                            "stock".getBytes(StandardCharsets.UTF_8));
+                    connection.setCommands().sCard(voucherKeys.get(i + 1).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return null;
+        });
+        List<StockState> states = new ArrayList<>(snapshots.size());
+        int index = 0;
+        for (List<String> voucherKeys : keys) {
+            StockState state = new StockState();
+            for (int i = 0; i < voucherKeys.size(); i += 2) {
+                Object stock = results.get(index++);
+                Object users = results.get(index++);
+                if (stock == null) {
+                    state.missing.add(voucherKeys.get(i));
+                } else {
+                    long value = Long.parseLong(stock.toString());
+                    state.stock += value;
+                    if (state.target == null || value > state.targetStock) {
+                        state.target = voucherKeys.get(i);
+                        state.targetStock = value;
+                    }
+                }
+                state.users += users == null ? 0 : ((Number) users).longValue();
+            }
+            states.add(state);
+        }
+        return states;
+    }
+
+    /**
+     * 每个分段的库存key和订单key，未分段时只有一对
+     */
+    private List<String> keysOf(Long voucherId) {
+        int segments = segmentedStock.segments(voucherId);
+        if (segments <= 1) {
+            return Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId);
+        }
+        List<String> keys = new ArrayList<>(segments * 2);
+        for (int i = 0; i < segments; i++) {
+            keys.add(SegmentedStock.stockKey(voucherId, i));
+            keys.add(SegmentedStock.orderKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 按主键分页读取订单，把下单用户写回所属分段的已下单集合，下一轮再对账库存
+     */
+    private void rebuildOrderSet(SeckillStockSnapshot snapshot) {
+        Long voucherId = snapshot.getVoucherId();
+        int segments = segmentedStock.segments(voucherId);
+        long expireAt = epochSecond(snapshot.getEndTime()) + 86400;
+        long lastOrderId = 0;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderService.query()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("id", lastOrderId)
+                    .orderByAsc("id")
+                    .last("limit " + pageSize)
+                    .list();
+            if (orders.isEmpty()) {
+                return;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (VoucherOrder order : orders) {
+                    String key = segments <= 1 ? SECKILL_ORDER_KEY + voucherId
+                            : SegmentedStock.orderKey(voucherId, SegmentedStock.segmentOf(order.getUserId(), segments));
+                    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                    connection.setCommands().sAdd(rawKey, order.getUserId().toString().getBytes(StandardCharsets.UTF_8));
+                    connection.keyCommands().expireAt(rawKey, expireAt);
+                }
+                return null;
+            });
+            lastOrderId = orders.get(orders.size() - 1).getId();
+            if (orders.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    private void count(String result) {
+        Counter.builder("seckill.stock.reconcile")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 一张券所有分段的Redis库存汇总
+     */
+    private static final class StockState {
+        private long stock;
+        private long users;
+        /**
+         * 库存最多的分段，偏差修正在这个分段上
+         */
+        private String target;
+        private long targetStock;
+        private final List<String> missing = new ArrayList<>();
+
+        /**
+         * Redis中 库存+已下单用户数 和MySQL中 库存+订单数 的差
+         */
+        private long drift(SeckillStockSnapshot snapshot) {
+            return stock + users - (snapshot.getStock() + snapshot.getOrderCount());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.hmdp.utils.seckill;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.SeckillStockInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.constants.RedisConstants.*;
+
+/**
+ * 分段库存：超热门秒杀券的库存拆分到多个分段，每个分段使用不同的hash tag，集群中可以分布在不同的节点
+ * 1.用户按id固定路由到一个分段，一人一单在分段内判断即可保证正确
+ * 2.分段库存用完后依次向其他分段借库存，所有分段都借不到才算售罄
+ * 3.借库存分两步：先在脚本中扣减被借的分段，再增加本分段；第二步失败时归还给被借的分段，
+ *   进程在两步之间退出时最多丢失borrow-size个库存，由SeckillStockReconciler修复
+ */
+@Slf4j
+@Component
+public class SegmentedStock {
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> BORROW_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill_segment.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        BORROW_SCRIPT = new DefaultRedisScript<>();
+        BORROW_SCRIPT.setLocation(new ClassPathResource("seckill_borrow.lua"));
+        BORROW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.segment.borrow-size:10}")
+    private int borrowSize;
+
+    /**
+     * 秒杀券的分段数，秒杀券创建后不再变化，短时间缓存在本地
+     */
+    private final Cache<Long, Integer> segmentCounts = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    public static String stockKey(Long voucherId, int segment) {
+        return String.format(SECKILL_STOCK_SEGMENT_KEY, voucherId, segment);
+    }
+
+    public static String orderKey(Long voucherId, int segment) {
+        return String.format(SECKILL_ORDER_SEGMENT_KEY, voucherId, segment);
+    }
+
+    public static String compensatedKey(Long voucherId, int segment) {
+        return String.format(SECKILL_COMPENSATED_SEGMENT_KEY, voucherId, segment);
+    }
+
+    /**
+     * 用户所属的分段
+     */
+    public static int segmentOf(Long userId, int segments) {
+        return Math.floorMod(userId.hashCode(), segments);
+    }
+
+    /**
+     * 秒杀券的分段数，1表示没有分段
+     */
+    public int segments(Long voucherId) {
+        return segmentCounts.get(voucherId, id -> {
+            String count = stringRedisTemplate.opsForValue().get(SECKILL_SEGMENTS_KEY + id);
+            return count == null ? 1 : Integer.parseInt(count);
+        });
+    }
+
+    /**
+     * 把库存平均拆分到各个分段，余数分给前面的分段
+     * 分段库存、分段数和已下单集合一样保留到结束后一天，结束后的请求仍然能判断为已结束，补偿时也能定位分段
+     */
+    public void init(Long voucherId, int stock, LocalDateTime beginTime, LocalDateTime endTime, int segments) {
+        long endSecond = SeckillStockInfo.epochSecond(endTime);
+        for (int i = 0; i < segments; i++) {
+            int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+            String key = stockKey(voucherId, i);
+            stringRedisTemplate.opsForHash().putAll(key, new SeckillStockInfo(segmentStock, beginTime, endTime).toHash());
+            stringRedisTemplate.expireAt(key, new Date((endSecond + 86400) * 1000));
+        }
+        // 最后写分段数，读到分段数时分段一定已经存在
+        String segmentsKey = SECKILL_SEGMENTS_KEY + voucherId;
+        stringRedisTemplate.opsForValue().set(segmentsKey, String.valueOf(segments));
+        stringRedisTemplate.expireAt(segmentsKey, new Date((endSecond + 86400) * 1000));
+        segmentCounts.put(voucherId, segments);
+        log.info("秒杀库存拆分完成，voucherId: {}, 库存: {}, 分段数: {}", voucherId, stock, segments);
+    }
+
+    /**
+     * 在用户所属的分段中秒杀
+     * @return 和seckill_advanced.lua相同的结果码，成功返回0
+     */
+    public long seckill(Long voucherId, Long userId, int segments) {
+        int home = segmentOf(userId, segments);
+        List<String> keys = Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home));
+        long result = execute(keys, userId);
+        if (result != 1) {
+            return result;
+        }
+        // 本分段已售罄，依次向其他分段借库存
+        for (int i = 1; i < segments; i++) {
+            String donor = stockKey(voucherId, (home + i) % segments);
+            Long borrowed = stringRedisTemplate.execute(BORROW_SCRIPT,
+                    Collections.singletonList(donor), String.valueOf(borrowSize));
+            if (borrowed == null || borrowed <= 0) {
+                continue;
+            }
+            credit(keys.get(0), donor, borrowed);
+            result = execute(keys, userId);
+            if (result != 1) {
+                return result;
+            }
+            // 借到的库存已经被同一分段的其他用户抢完，继续借
+        }
+        return 1;
+    }
+
+    /**
+     * 借到的库存加到本分段，失败时归还给被借的分段
+     */
+    private void credit(String home, String donor, long borrowed) {
+        try {
+            stringRedisTemplate.opsForHash().increment(home, "stock", borrowed);
+        } catch (RuntimeException e) {
+            try {
+                stringRedisTemplate.opsForHash().increment(donor, "stock", borrowed);
+                log.warn("借库存失败，已归还，donor: {}, 数量: {}", donor, borrowed, e);
+            } catch (RuntimeException ex) {
+                log.error("借库存失败且归还失败，等待对账修复，donor: {}, home: {}, 数量: {}", donor, home, borrowed, ex);
+            }
+            throw e;
+        }
+    }
+
+    private long execute(List<String> keys, Long userId) {
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys, userId.toString());
+        return result == null ? 3 : result;
+    }
+}
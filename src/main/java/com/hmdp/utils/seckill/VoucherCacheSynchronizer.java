@@ -0,0 +1,122 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.utils.CacheManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.constants.RedisConstants.VOUCHER_INFO_KEY;
+import static com.hmdp.utils.constants.RedisConstants.VOUCHER_INFO_TTL;
+
+/**
+ * 优惠券信息缓存同步：下单后只标记优惠券，定时批量刷新
+ * 1.事务提交后才标记，刷新时一定能读到已提交的库存
+ * 2.每个间隔内同一张优惠券最多刷新一次，一次查询读出这一批优惠券和秒杀库存
+ * 3.单线程的专用调度器执行，不占用公共线程池；关闭时刷新剩余的优惠券
+ */
+@Slf4j
+@Component
+public class VoucherCacheSynchronizer {
+
+    @Resource
+    private VoucherMapper voucherMapper;
+    @Resource
+    private CacheManager cacheManager;
+
+    @Value("${hmdp.seckill.cache-sync.interval-millis:1000}")
+    private long intervalMillis;
+    @Value("${hmdp.seckill.cache-sync.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 等待刷新的优惠券
+     */
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "voucher-cache-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        executor.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 标记优惠券需要刷新，在事务中调用时提交后才标记
+     */
+    public void markDirty(Long voucherId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dirty.add(voucherId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                dirty.add(voucherId);
+            }
+        });
+    }
+
+    void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        // 1.取出当前标记的优惠券，刷新期间新的标记留到下一轮
+        List<Long> ids = new ArrayList<>(dirty);
+        dirty.removeAll(ids);
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<Long> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            try {
+                refresh(batch);
+            } catch (Exception e) {
+                log.error("刷新优惠券缓存失败，voucherIds: {}", batch, e);
+                // 发送缓存清理消息作为兜底
+                batch.forEach(id -> cacheManager.sendCacheCleanMessage(VOUCHER_INFO_KEY + id));
+            }
+        }
+        log.debug("刷新优惠券缓存{}个", ids.size());
+    }
+
+    private void refresh(List<Long> batch) {
+        // 2.一次查询读出优惠券和秒杀库存
+        Map<Long, Voucher> vouchers = new HashMap<>(batch.size());
+        for (Voucher voucher : voucherMapper.queryVoucherWithStock(batch)) {
+            vouchers.put(voucher.getId(), voucher);
+        }
+        for (Long id : batch) {
+            Voucher voucher = vouchers.get(id);
+            if (voucher == null) {
+                cacheManager.sendCacheCleanMessage(VOUCHER_INFO_KEY + id);
+                continue;
+            }
+            // 3.更新缓存并发送消息，由Kafka生产者合并成批
+            cacheManager.updateCacheWithMessage(VOUCHER_INFO_KEY + id, voucher, VOUCHER_INFO_TTL, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
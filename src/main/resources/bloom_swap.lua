@@ -0,0 +1,11 @@
+-- 布隆过滤器重建完成后替换正式位图
+-- 重建期间其他节点新增的数据只写入了正式位图，先合并到临时位图再替换，新增的数据不会丢失
+-- 参数变化时旧位图的位会带来一些额外的误判，但不会漏判，下次重建后消失
+-- KEYS[1]：临时位图，KEYS[2]：正式位图，KEYS[3]：参数HASH
+-- ARGV[1]：位数，ARGV[2]：哈希函数个数
+if redis.call('exists', KEYS[2]) == 1 then
+    redis.call('bitop', 'or', KEYS[1], KEYS[1], KEYS[2])
+end
+redis.call('rename', KEYS[1], KEYS[2])
+redis.call('hset', KEYS[3], 'bits', ARGV[1], 'hashes', ARGV[2])
+return 1
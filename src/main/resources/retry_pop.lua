@@ -0,0 +1,20 @@
+-- 取出到期的重试消息
+-- KEYS[1]: 到期时间ZSET，member为消息的唯一标识（缓存key、订单id）
+-- KEYS[2]: 消息HASH，field和ZSET的member相同
+-- ARGV[1]: 当前时间戳（毫秒）
+-- ARGV[2]: 一次最多取出的数量
+local keys = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+if #keys == 0 then
+    return {}
+end
+local messages = redis.call('hmget', KEYS[2], unpack(keys))
+-- 取出后删除，多个节点同时执行时每条消息只会被一个节点取到
+redis.call('zrem', KEYS[1], unpack(keys))
+redis.call('hdel', KEYS[2], unpack(keys))
+local result = {}
+for _, message in ipairs(messages) do
+    if message then
+        table.insert(result, message)
+    end
+end
+return result
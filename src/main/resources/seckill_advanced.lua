@@ -0,0 +1,56 @@
+-- 异步秒杀Lua脚本
+-- 库存信息保存为HASH，字段都是整数：stock库存，begin/end秒杀开始和结束时间（秒级时间戳）
+-- 1.参数列表
+-- 1.1.优惠券id
+local voucherId = ARGV[1]
+-- 1.2.用户id
+local userId = ARGV[2]
+
+-- 2.数据key
+-- 2.1.库存key
+local stockKey = 'seckill:stock:' .. voucherId
+-- 2.2.订单key
+local orderKey = 'seckill:order:' .. voucherId
+
+-- 3.获取库存信息
+local info = redis.call('hmget', stockKey, 'stock', 'begin', 'end')
+if not info[1] then
+    -- 库存信息不存在，结束一天后库存key过期，由调用方根据不过期的结束时间区分已结束
+    return 3
+end
+
+-- 4.检查秒杀时间，按整数比较
+local currentTime = tonumber(redis.call('time')[1])
+if currentTime < tonumber(info[2]) then
+    -- 秒杀未开始
+    return 4
+end
+if currentTime > tonumber(info[3]) then
+    -- 秒杀已结束
+    return 5
+end
+
+-- 5.判断库存是否充足
+if tonumber(info[1]) <= 0 then
+    -- 库存不足
+    return 1
+end
+
+-- 6.判断用户是否已下单
+if redis.call('sismember', orderKey, userId) == 1 then
+    -- 用户已下单
+    return 2
+end
+
+-- 7.扣减库存
+redis.call('hincrby', stockKey, 'stock', -1)
+
+-- 8.添加用户到已下单集合，集合第一次创建时过期时间设置为秒杀结束后一天
+-- 库存key的过期时间在写入时设置为秒杀结束后一天，和已下单集合同时过期
+redis.call('sadd', orderKey, userId)
+if redis.call('scard', orderKey) == 1 then
+    redis.call('expireat', orderKey, tonumber(info[3]) + 86400)
+end
+
+-- 9.下单成功
+return 0
@@ -0,0 +1,10 @@
+-- 从其他分段借库存
+-- KEYS[1]：被借的分段库存key，ARGV[1]：最多借的数量
+-- 返回实际借到的数量
+local stock = tonumber(redis.call('hget', KEYS[1], 'stock'))
+if not stock or stock <= 0 then
+    return 0
+end
+local n = math.min(stock, tonumber(ARGV[1]))
+redis.call('hincrby', KEYS[1], 'stock', -n)
+return n
@@ -0,0 +1,21 @@
+-- 回补同一个库存分段中落库失败的秒杀订单，所有key在同一个slot
+-- KEYS[1]：已回补的订单id集合，保证同一个订单只回补一次
+-- KEYS[2]：库存key，KEYS[3]：已下单用户key
+-- ARGV[2n-1]、ARGV[2n]：第n个订单的订单id和用户id
+-- 返回实际回补的订单数
+local restored = 0
+for i = 1, #ARGV, 2 do
+    if redis.call('sadd', KEYS[1], ARGV[i]) == 1 then
+        -- 用户还在已下单集合中才回补库存，重复的死信消息不会多加库存
+        if redis.call('srem', KEYS[3], ARGV[i + 1]) == 1 and redis.call('exists', KEYS[2]) == 1 then
+            redis.call('hincrby', KEYS[2], 'stock', 1)
+            restored = restored + 1
+        end
+    end
+end
+-- 只在第一次创建时设置过期时间，和已下单集合同时过期，集合不存在时保留一天
+if redis.call('ttl', KEYS[1]) == -1 then
+    local ttl = redis.call('ttl', KEYS[3])
+    redis.call('expire', KEYS[1], ttl > 0 and ttl or 86400)
+end
+return restored
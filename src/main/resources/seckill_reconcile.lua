@@ -0,0 +1,10 @@
+-- 修正一个库存分段的偏差，只访问一个key，集群中不会跨slot
+-- 偏差在Java中由各分段的库存和已下单用户数计算，用HINCRBY修正，不覆盖并发的扣减
+-- KEYS[1]：库存key
+-- ARGV[1]：库存修正值，ARGV[2]、ARGV[3]：开始和结束时间（秒），库存key丢失时重新创建
+-- 返回修正后的库存
+if redis.call('exists', KEYS[1]) == 0 then
+    redis.call('hset', KEYS[1], 'stock', 0, 'begin', ARGV[2], 'end', ARGV[3])
+    redis.call('expireat', KEYS[1], tonumber(ARGV[3]) + 86400)
+end
+return redis.call('hincrby', KEYS[1], 'stock', ARGV[1])
@@ -0,0 +1,44 @@
+-- 分段库存秒杀Lua脚本，库存HASH的字段都是整数：stock库存，begin/end开始和结束时间（秒）
+-- 1.参数列表
+-- 1.1.分段库存key
+local stockKey = KEYS[1]
+-- 1.2.分段订单key
+local orderKey = KEYS[2]
+-- 1.3.用户id
+local userId = ARGV[1]
+
+-- 2.获取库存信息
+local info = redis.call('hmget', stockKey, 'stock', 'begin', 'end')
+if not info[1] then
+    -- 库存信息不存在，结束一天后库存key过期，由调用方根据不过期的结束时间区分已结束
+    return 3
+end
+
+-- 3.检查秒杀时间
+local now = tonumber(redis.call('time')[1])
+if now < tonumber(info[2]) then
+    -- 秒杀未开始
+    return 4
+end
+if now > tonumber(info[3]) then
+    -- 秒杀已结束
+    return 5
+end
+
+-- 4.判断用户是否已下单，先于库存判断，已下单的用户不会触发借库存
+if redis.call('sismember', orderKey, userId) == 1 then
+    return 2
+end
+
+-- 5.判断库存是否充足
+if tonumber(info[1]) <= 0 then
+    return 1
+end
+
+-- 6.扣减库存，添加用户到已下单集合，集合第一次创建时过期时间设置为秒杀结束后一天
+redis.call('hincrby', stockKey, 'stock', -1)
+redis.call('sadd', orderKey, userId)
+if redis.call('scard', orderKey) == 1 then
+    redis.call('expireat', orderKey, tonumber(info[3]) + 86400)
+end
+return 0
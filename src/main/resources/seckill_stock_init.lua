@@ -0,0 +1,10 @@
+-- 预热秒杀库存：库存key已经是HASH时不覆盖，旧格式的字符串直接替换
+-- KEYS[1]：库存key，ARGV：库存、开始时间、结束时间（秒级时间戳）
+-- 库存key在秒杀结束后一天过期，和已下单集合同时过期，结束后的请求仍然能判断为已结束
+if redis.call('type', KEYS[1]).ok == 'hash' then
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('hset', KEYS[1], 'stock', ARGV[1], 'begin', ARGV[2], 'end', ARGV[3])
+redis.call('expireat', KEYS[1], tonumber(ARGV[3]) + 86400)
+return 1
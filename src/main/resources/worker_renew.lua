@@ -0,0 +1,17 @@
+-- 续约机器id，并记录最后发放的时间戳
+-- KEYS[1]：机器id租约key，KEYS[2]：最后发放的时间戳key
+-- ARGV[1]：持有者标识，ARGV[2]：租约时间（秒），ARGV[3]：最后发放的时间戳，0表示还没有发放
+local owner = redis.call('get', KEYS[1])
+if owner == ARGV[1] then
+    redis.call('expire', KEYS[1], ARGV[2])
+elseif not owner then
+    -- Redis不可用期间租约过期，没有被其他节点占用时重新占用
+    redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2])
+else
+    -- 已经被其他节点占用
+    return 0
+end
+if ARGV[3] ~= '0' then
+    redis.call('set', KEYS[2], ARGV[3], 'EX', 86400)
+end
+return 1
@@ -14,14 +14,18 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.constants.RedisConstants.CACHE_SHOP_KEY;
 import static com.hmdp.utils.constants.RedisConstants.SHOP_GEO_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -41,23 +45,31 @@ class HmDianPingApplicationTests {
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
     @Test
-    void testIdWorker() throws InterruptedException {
-        CountDownLatch latch = new CountDownLatch(300);
+    void testIdWorker() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
 
         Runnable task = () -> {
-            for (int i = 0; i < 100; i++) {
+            long last = 0;
+            for (int i = 0; i < 1000; i++) {
                 long id = redisIdWorker.nextId("order");
-                System.out.println("id = " + id);
+                // 同一个线程内单调递增
+                assertTrue(id > last);
+                last = id;
+                ids.add(id);
             }
-            latch.countDown();
         };
         long begin = System.currentTimeMillis();
+        List<Future<?>> futures = new ArrayList<>(300);
         for (int i = 0; i < 300; i++) {
-            es.submit(task);
+            futures.add(es.submit(task));
+        }
+        // get()会抛出任务内的断言失败，而不是一直等待
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
         }
-        latch.await();
         long end = System.currentTimeMillis();
-        System.out.println("time = " + (end - begin));
+        assertEquals(300 * 1000, ids.size());
+        System.out.println("time = " + (end - begin) + ", ids/sec = " + ids.size() * 1000L / Math.max(end - begin, 1));
     }
 
     @Test
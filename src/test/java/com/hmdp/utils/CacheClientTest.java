@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.bloom.BloomFilterManager;
+import com.hmdp.utils.cache.CacheMetrics;
+import com.hmdp.utils.cache.CacheRebuildScheduler;
+import com.hmdp.utils.cache.HotKeyDetector;
+import com.hmdp.utils.cache.LocalCache;
+import com.hmdp.utils.codec.CacheSerializer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CacheClientTest {
+
+    private static final String PREFIX = "cache:shop:";
+
+    private StringRedisTemplate stringRedisTemplate;
+    private ValueOperations<String, String> stringOps;
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+    private CacheSerializer cacheSerializer;
+    private RedisStringCommands stringCommands;
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        stringOps = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringOps);
+        when(stringOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        // 缓存中的两个商铺都已逻辑过期
+        byteRedisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, byte[]> byteOps = mock(ValueOperations.class);
+        when(byteRedisTemplate.opsForValue()).thenReturn(byteOps);
+        when(byteOps.multiGet(anyCollection())).thenReturn(Arrays.asList(new byte[]{1}, new byte[]{2}));
+        cacheSerializer = mock(CacheSerializer.class);
+        when(cacheSerializer.deserializeLogical(any(byte[].class), eq(Shop.class)))
+                .thenAnswer(invocation -> expired(((byte[]) invocation.getArgument(0))[0]));
+        when(cacheSerializer.serializeLogical(anyString(), any(), any(LocalDateTime.class), anyLong()))
+                .thenReturn(new byte[]{9});
+
+        // 执行pipeline回调，记录写入的key
+        RedisConnection connection = mock(RedisConnection.class);
+        stringCommands = mock(RedisStringCommands.class);
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(byteRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return Collections.emptyList();
+        });
+
+        // 重建任务在调用线程同步执行
+        CacheRebuildScheduler rebuildScheduler = mock(CacheRebuildScheduler.class);
+        when(rebuildScheduler.submitBatch(anyMap(), anyBoolean(), any())).thenAnswer(invocation -> {
+            Map<String, Long> keyed = invocation.getArgument(0);
+            Consumer<List<Long>> task = invocation.getArgument(2);
+            task.accept(new ArrayList<>(keyed.values()));
+            return true;
+        });
+
+        cacheClient = new CacheClient(stringRedisTemplate, byteRedisTemplate, cacheSerializer, mock(LocalCache.class),
+                mock(BloomFilterManager.class), rebuildScheduler, mock(HotKeyDetector.class),
+                new CacheMetrics(new SimpleMeterRegistry()), 0, 1.0);
+    }
+
+    private static RedisData expired(long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("旧数据" + id);
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        return redisData;
+    }
+
+    @Test
+    void testBatchLogicalExpireRebuild() {
+        Map<Long, Shop> result = cacheClient.queryBatchWithLogicalExpire(PREFIX, Arrays.asList(1L, 2L), Shop.class,
+                ids -> {
+                    Shop shop = new Shop();
+                    shop.setId(1L);
+                    shop.setName("新数据1");
+                    // 2号商铺已从数据库删除
+                    return Collections.singletonList(shop);
+                }, Shop::getId, 30L, TimeUnit.MINUTES);
+
+        // 过期数据直接返回
+        assertEquals("旧数据1", result.get(1L).getName());
+        assertEquals("旧数据2", result.get(2L).getName());
+        // 锁的key按缓存前缀生成，重建后释放
+        verify(stringOps).setIfAbsent("lock:cache:shop:1", "1", 10, TimeUnit.SECONDS);
+        verify(stringOps).setIfAbsent("lock:cache:shop:2", "1", 10, TimeUnit.SECONDS);
+        verify(stringRedisTemplate).delete("lock:cache:shop:1");
+        verify(stringRedisTemplate).delete("lock:cache:shop:2");
+        // 只回写数据库中查到的商铺
+        verify(stringCommands).set(eq((PREFIX + 1).getBytes(StandardCharsets.UTF_8)), any(byte[].class));
+        verify(stringCommands, times(1)).set(any(byte[].class), any(byte[].class));
+    }
+
+    @Test
+    void testBatchLogicalExpireRebuildWithNullResult() {
+        Map<Long, Shop> result = cacheClient.queryBatchWithLogicalExpire(PREFIX, Arrays.asList(1L, 2L), Shop.class,
+                ids -> null, Shop::getId, 30L, TimeUnit.MINUTES);
+
+        assertEquals(2, result.size());
+        // 数据库返回null时不回写，锁仍然释放
+        verify(byteRedisTemplate, never()).executePipelined(any(RedisCallback.class));
+        verify(stringRedisTemplate).delete("lock:cache:shop:1");
+        verify(stringRedisTemplate).delete("lock:cache:shop:2");
+    }
+}
@@ -0,0 +1,118 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SnowflakeIdWorkerTest {
+
+    @SuppressWarnings("unchecked")
+    private SnowflakeIdWorker newWorker() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        SnowflakeIdWorker worker = new SnowflakeIdWorker();
+        ReflectionTestUtils.setField(worker, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(worker, "leaseSeconds", 60L);
+        ReflectionTestUtils.setField(worker, "maxAheadSeconds", 10L);
+        worker.init();
+        return worker;
+    }
+
+    @Test
+    void testUniqueAndMonotonic() throws Exception {
+        SnowflakeIdWorker worker = newWorker();
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Future<?>[] futures = new Future[8];
+        for (int t = 0; t < futures.length; t++) {
+            futures[t] = executor.submit(() -> {
+                long last = 0;
+                for (int i = 0; i < 10000; i++) {
+                    long id = worker.nextId("order");
+                    assertTrue(id > last);
+                    last = id;
+                    ids.add(id);
+                }
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(80000, ids.size());
+
+        // 高32位和RedisIdWorker一样是秒级时间戳
+        long id = worker.nextId("order");
+        long millis = System.currentTimeMillis();
+        long now = (millis + TimeZone.getDefault().getOffset(millis)) / 1000 - 1640995200L;
+        assertTrue(Math.abs((id >>> 32) - now) <= 1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBorrowNextSecondAndRejectTooFarAhead() {
+        SnowflakeIdWorker worker = newWorker();
+        long first = worker.nextId("order");
+        Map<String, AtomicLong> states = (Map<String, AtomicLong>) ReflectionTestUtils.getField(worker, "states");
+        long second = first >>> 32;
+
+        // 序列号用完后借用下一秒
+        states.get("order").set(second << 22 | ((1L << 22) - 1));
+        long borrowed = worker.nextId("order");
+        assertEquals(second + 1, borrowed >>> 32);
+        assertEquals(0, borrowed & ((1L << 22) - 1));
+
+        // 时钟回拨后继续使用上一个时间戳，领先当前时间太多时拒绝生成
+        states.get("order").set((second + 5) << 22);
+        assertEquals(second + 5, worker.nextId("order") >>> 32);
+        states.get("order").set((second + 20) << 22);
+        assertThrows(RuntimeException.class, () -> worker.nextId("order"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testReleaseAndReacquireStartsAfterLastSecond() {
+        SnowflakeIdWorker worker = newWorker();
+        long id = worker.nextId("order");
+        StringRedisTemplate redisTemplate = (StringRedisTemplate) ReflectionTestUtils.getField(worker, "stringRedisTemplate");
+        ValueOperations<String, String> ops = redisTemplate.opsForValue();
+        long workerId = (long) ReflectionTestUtils.getField(worker, "workerId");
+
+        // 释放时记录最后发放的时间戳
+        worker.release();
+        verify(ops).set("id:worker:last:" + workerId, String.valueOf(id >>> 32), 1, TimeUnit.DAYS);
+
+        // 重新租用的机器id上一个持有者已经发放到了后面的时间戳，从它的下一秒开始
+        long last = (id >>> 32) + 3;
+        SnowflakeIdWorker restarted = new SnowflakeIdWorker();
+        StringRedisTemplate restartedTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> restartedOps = mock(ValueOperations.class);
+        when(restartedTemplate.opsForValue()).thenReturn(restartedOps);
+        when(restartedOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(restartedOps.get(startsWith("id:worker:last:"))).thenReturn(String.valueOf(last));
+        ReflectionTestUtils.setField(restarted, "stringRedisTemplate", restartedTemplate);
+        ReflectionTestUtils.setField(restarted, "leaseSeconds", 60L);
+        ReflectionTestUtils.setField(restarted, "maxAheadSeconds", 10L);
+        restarted.init();
+        long next = restarted.nextId("order");
+        assertEquals(last + 1, next >>> 32);
+        assertEquals(0, next & ((1L << 22) - 1));
+    }
+}
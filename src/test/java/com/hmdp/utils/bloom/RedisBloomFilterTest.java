@@ -0,0 +1,202 @@
+package com.hmdp.utils.bloom;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RedisBloomFilterTest {
+
+    @Test
+    void testOptimalParams() {
+        long bits = RedisBloomFilter.optimalNumOfBits(1000000, 0.01);
+        // 1%误判率大约需要每个元素9.6位，7个哈希函数
+        assertEquals(9585058, bits);
+        assertEquals(7, RedisBloomFilter.optimalNumOfHashes(1000000, bits));
+    }
+
+    @Test
+    void testFalsePositiveRate() {
+        int n = 100000;
+        RedisBloomFilter filter = new RedisBloomFilter("bloom:test", n, 0.01, null);
+        long numBits = RedisBloomFilter.optimalNumOfBits(n, 0.01);
+        BitSet bits = new BitSet((int) numBits);
+        for (long id = 1; id <= n; id++) {
+            for (long offset : filter.offsets(id)) {
+                assertTrue(offset >= 0 && offset < numBits);
+                bits.set((int) offset);
+            }
+        }
+        // 已插入的数据一定命中
+        for (long id = 1; id <= n; id++) {
+            assertTrue(contains(bits, filter.offsets(id)));
+        }
+        // 未插入的数据误判率接近配置值
+        int falsePositives = 0;
+        for (long id = n + 1; id <= 2L * n; id++) {
+            if (contains(bits, filter.offsets(id))) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / n;
+        System.out.println("fpp = " + rate);
+        assertTrue(rate < 0.02);
+    }
+
+    @Test
+    void testAddDuringRebuildSurvivesSwap() {
+        FakeRedis redis = new FakeRedis();
+        RedisBloomFilter rebuilding = new RedisBloomFilter("bloom:test", 1000, 0.01, redis.template);
+        RedisBloomFilter other = new RedisBloomFilter("bloom:test", 1000, 0.01, redis.template);
+        redis.bitmaps.put("bloom:test", new BitSet());
+
+        boolean[] first = {true};
+        assertTrue(rebuilding.rebuild(lastId -> {
+            if (!first[0]) {
+                return Collections.emptyList();
+            }
+            first[0] = false;
+            // 重建期间另一个节点新增数据，只写入正式位图
+            other.add(100L);
+            // 另一个节点此时拿不到重建锁
+            assertFalse(other.rebuild(id -> Collections.emptyList(), 60));
+            return Arrays.asList(1L, 2L, 3L);
+        }, 60));
+
+        BitSet live = redis.bitmaps.get("bloom:test");
+        for (long id : new long[]{1, 2, 3, 100}) {
+            assertTrue(contains(live, rebuilding.offsets(id)), "id " + id + " 丢失");
+        }
+        assertFalse(redis.bitmaps.containsKey("bloom:test:rebuild"));
+        assertTrue(redis.locks.isEmpty());
+        // 重建节点的本地镜像也包含其他节点重建期间新增的数据
+        for (long id : new long[]{1, 2, 3, 100}) {
+            assertTrue(rebuilding.mightContain(id));
+        }
+    }
+
+    @Test
+    void testMightContainOnlyChecksMirror() {
+        FakeRedis redis = new FakeRedis();
+        RedisBloomFilter filter = new RedisBloomFilter("bloom:test", 1000, 0.01, redis.template);
+        RedisBloomFilter other = new RedisBloomFilter("bloom:test", 1000, 0.01, redis.template);
+        // 构建完成前一律放行
+        assertTrue(filter.mightContain(1L));
+        assertTrue(filter.rebuild(lastId -> lastId == 0 ? Arrays.asList(1L, 2L) : Collections.emptyList(), 60));
+        assertTrue(other.loadFromRedis());
+
+        // 其他节点新增的数据在收到广播前不可见，判断时不访问Redis
+        filter.add(500L);
+        assertTrue(filter.mightContain(500L));
+        assertFalse(other.mightContain(500L));
+        other.addLocal(500L);
+        assertTrue(other.mightContain(500L));
+        verify(redis.template.opsForValue(), never()).bitField(anyString(), any());
+        for (long id = 1000; id < 1100; id++) {
+            other.mightContain(id);
+        }
+        verify(redis.template.opsForValue(), never()).bitField(anyString(), any());
+
+        // 定时重新加载补上丢失的广播
+        filter.add(600L);
+        assertTrue(other.loadFromRedis());
+        assertTrue(other.mightContain(600L));
+    }
+
+    private boolean contains(BitSet bits, long[] offsets) {
+        for (long offset : offsets) {
+            if (!bits.get((int) offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 内存中模拟过滤器用到的Redis命令，替换脚本按bloom_swap.lua的语义执行
+     */
+    @SuppressWarnings("unchecked")
+    private static class FakeRedis {
+        final Map<String, BitSet> bitmaps = new ConcurrentHashMap<>();
+        final Map<String, String> locks = new ConcurrentHashMap<>();
+        final Map<String, Map<Object, Object>> meta = new ConcurrentHashMap<>();
+        final StringRedisTemplate template = mock(StringRedisTemplate.class);
+
+        FakeRedis() {
+            StringRedisConnection connection = mock(StringRedisConnection.class);
+            when(connection.setBit(anyString(), anyLong(), anyBoolean())).thenAnswer(inv -> setBit(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+            when(template.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+                ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(connection);
+                return Collections.emptyList();
+            });
+            when(template.delete(anyString())).thenAnswer(inv -> bitmaps.remove(inv.<String>getArgument(0)) != null);
+            RedisConnection rawConnection = mock(RedisConnection.class);
+            when(rawConnection.get(any(byte[].class))).thenAnswer(inv -> toRedisBytes(bitmaps.get(new String(inv.<byte[]>getArgument(0), StandardCharsets.UTF_8))));
+            when(template.execute(any(RedisCallback.class))).thenAnswer(inv -> ((RedisCallback<Object>) inv.getArgument(0)).doInRedis(rawConnection));
+            HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+            when(template.opsForHash()).thenReturn(hashOps);
+            when(hashOps.entries(anyString())).thenAnswer(inv -> meta.getOrDefault(inv.<String>getArgument(0), Collections.emptyMap()));
+
+            ValueOperations<String, String> ops = mock(ValueOperations.class);
+            when(template.opsForValue()).thenReturn(ops);
+            when(ops.setBit(anyString(), anyLong(), anyBoolean())).thenAnswer(inv -> setBit(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+            when(ops.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class)))
+                    .thenAnswer(inv -> locks.putIfAbsent(inv.getArgument(0), inv.getArgument(1)) == null);
+
+            when(template.execute(any(RedisScript.class), anyList(), any())).thenAnswer(inv -> {
+                RedisScript<?> script = inv.getArgument(0);
+                List<String> keys = inv.getArgument(1);
+                if (script.getScriptAsString().contains("bitop")) {
+                    // 合并正式位图后替换
+                    BitSet merged = bitmaps.remove(keys.get(0));
+                    BitSet live = bitmaps.get(keys.get(1));
+                    if (live != null) {
+                        merged.or(live);
+                    }
+                    bitmaps.put(keys.get(1), merged);
+                    Map<Object, Object> params = new HashMap<>();
+                    params.put("bits", inv.getArgument(2));
+                    params.put("hashes", inv.getArgument(3));
+                    meta.put(keys.get(2), params);
+                    return 1L;
+                }
+                // 释放锁
+                return locks.remove(keys.get(0)) != null ? 1L : 0L;
+            });
+        }
+
+        /**
+         * Redis位图中，每个字节的最高位对应最小的offset
+         */
+        private static byte[] toRedisBytes(BitSet bits) {
+            if (bits == null) {
+                return null;
+            }
+            byte[] bytes = new byte[(bits.length() + 7) / 8];
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                bytes[i / 8] |= (byte) (0x80 >>> (i % 8));
+            }
+            return bytes;
+        }
+
+        private boolean setBit(String key, long offset, boolean value) {
+            BitSet bits = bitmaps.computeIfAbsent(key, k -> new BitSet());
+            boolean old = bits.get((int) offset);
+            bits.set((int) offset, value);
+            return old;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheInvalidationSchedulerTest {
+
+    @Test
+    void testDoubleDeleteCoalesced() throws InterruptedException {
+        List<Set<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        List<Set<String>> broadcasts = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delayed = new CountDownLatch(1);
+        CacheInvalidationScheduler scheduler = new CacheInvalidationScheduler((Collection<String> keys) -> {
+            batches.add(new HashSet<>(keys));
+            if (keys.size() > 1) {
+                delayed.countDown();
+            }
+        }, keys -> broadcasts.add(new HashSet<>(keys)), 200, 1000);
+        try {
+            // 同一个窗口内多次删除
+            scheduler.invalidate("cache:shop:1");
+            scheduler.invalidate("cache:shop:1");
+            scheduler.invalidate("cache:shop:2");
+            // 立即删除每次都执行，由调用方广播
+            assertEquals(3, batches.size());
+            assertTrue(broadcasts.isEmpty());
+
+            // 延迟删除合并为一批，重复的key只删除一次
+            assertTrue(delayed.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertEquals(4, batches.size());
+            assertEquals(new HashSet<>(Arrays.asList("cache:shop:1", "cache:shop:2")), batches.get(3));
+            // 延迟删除后再广播一次本地缓存失效
+            assertEquals(Collections.singletonList(batches.get(3)), broadcasts);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.utils.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheMetricsTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSnapshot() {
+        CacheMetrics metrics = new CacheMetrics(new SimpleMeterRegistry());
+        String prefix = CacheMetrics.prefixOf("cache:shop:1");
+        assertEquals("cache:shop:", prefix);
+
+        metrics.record(prefix, CacheMetrics.Outcome.HIT, 3);
+        metrics.record(prefix, CacheMetrics.Outcome.MISS);
+        metrics.lockContention(prefix);
+        assertEquals("v", metrics.timeRedis(prefix, () -> "v"));
+        metrics.valueSize(prefix, 300);
+        metrics.publish("cache_update_topic", true);
+        metrics.publish("cache_update_topic", false);
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        Map<String, Object> shop = (Map<String, Object>) ((Map<String, Object>) snapshot.get("caches")).get(prefix);
+        assertEquals(3L, shop.get("hit"));
+        assertEquals(1L, shop.get("miss"));
+        assertEquals(0.75, shop.get("hit_ratio"));
+        assertEquals(1L, shop.get("lock_contention"));
+        assertEquals(1L, ((Map<String, Object>) shop.get("redis_latency_ms")).get("count"));
+        assertEquals(300.0, ((Map<String, Object>) shop.get("value_size_bytes")).get("max"));
+        Map<String, Object> publish = (Map<String, Object>) ((Map<String, Object>) snapshot.get("publish")).get("cache_update_topic");
+        assertEquals(1L, publish.get("success"));
+        assertEquals(1L, publish.get("failure"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.hmdp.utils.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheRebuildSchedulerTest {
+
+    @Test
+    void testDedupeAndCapacity() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CacheRebuildScheduler scheduler = new CacheRebuildScheduler(registry, 1, 2, 1000);
+        scheduler.start();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        // 占住唯一的线程
+        assertTrue(scheduler.submit("block", true, () -> await(release)));
+        while (scheduler.queueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        // 同一个key只排队一次
+        assertTrue(scheduler.submit("cache:shop:1", true, runs::incrementAndGet));
+        assertTrue(scheduler.submit("cache:shop:1", true, runs::incrementAndGet));
+        // 批量任务过滤掉已在排队的key
+        Map<String, Long> keyed = new LinkedHashMap<>();
+        keyed.put("cache:shop:1", 1L);
+        keyed.put("cache:shop:2", 2L);
+        List<Long> batchIds = new CopyOnWriteArrayList<>();
+        assertTrue(scheduler.submitBatch(keyed, true, batchIds::addAll));
+        // 队列已满，拒绝
+        assertFalse(scheduler.submit("cache:shop:3", true, runs::incrementAndGet));
+        assertEquals(2, scheduler.queueDepth());
+
+        release.countDown();
+        scheduler.stop();
+        assertEquals(1, runs.get());
+        assertEquals(Collections.singletonList(2L), batchIds);
+        assertEquals(1.0, registry.get("cache.rebuild.rejected").counter().count());
+        assertEquals(2.0, registry.get("cache.rebuild.deduplicated").counter().count());
+        assertEquals(3, registry.get("cache.rebuild.latency").timer().count());
+    }
+
+    @Test
+    void testHotAndExpiredKeysFirst() throws Exception {
+        CacheRebuildScheduler scheduler = new CacheRebuildScheduler(new SimpleMeterRegistry(), 1, 100, 1000);
+        scheduler.setHotKeyPredicate("hot"::equals);
+        scheduler.start();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        scheduler.submit("block", true, () -> await(release));
+        while (scheduler.queueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        scheduler.submit("early", false, () -> order.add("early"));
+        scheduler.submit("expired", true, () -> order.add("expired"));
+        scheduler.submit("hot", false, () -> order.add("hot"));
+        release.countDown();
+        scheduler.stop();
+        assertEquals(Arrays.asList("hot", "expired", "early"), order);
+    }
+
+    @Test
+    void testRejectAfterStop() {
+        CacheRebuildScheduler scheduler = new CacheRebuildScheduler(new SimpleMeterRegistry(), 1, 100, 1000);
+        scheduler.start();
+        scheduler.stop();
+        assertFalse(scheduler.submit("cache:shop:1", true, () -> { }));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
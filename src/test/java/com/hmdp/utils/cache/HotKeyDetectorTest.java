@@ -0,0 +1,33 @@
+package com.hmdp.utils.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyDetectorTest {
+
+    @Test
+    void testDetectAndDemote() {
+        // 10秒窗口，10个时间桶，阈值100
+        HotKeyDetector detector = new HotKeyDetector(10, 10, 100, 4096, 1000);
+        long now = 1_000_000L;
+        // 冷key访问分散在大量不同的key上
+        for (int i = 0; i < 5000; i++) {
+            assertFalse(detector.record("cache:shop:" + i, now));
+        }
+        // 热key在窗口内分散访问，累计达到阈值
+        boolean hot = false;
+        for (int i = 0; i < 100; i++) {
+            hot = detector.record("cache:shop:hot", now + i * 50L);
+        }
+        assertTrue(hot);
+        assertEquals(1, detector.hotKeys(now + 5_000L).size());
+        assertEquals("cache:shop:hot", detector.hotKeys(now + 5_000L).get(0).getKey());
+
+        // 窗口滑过之后访问次数不足，降级
+        long later = now + 20_000L;
+        assertFalse(detector.record("cache:shop:hot", later));
+        assertFalse(detector.record("cache:shop:hot", later + 2_000L));
+        assertTrue(detector.hotKeys(later + 2_000L).isEmpty());
+    }
+}
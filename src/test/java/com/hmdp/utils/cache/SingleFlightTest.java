@@ -0,0 +1,76 @@
+package com.hmdp.utils.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void testConcurrentCallsShareOneLoad() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int threads = 100;
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        CountDownLatch started = new CountDownLatch(threads);
+        Future<?>[] futures = new Future[threads];
+        for (int i = 0; i < threads; i++) {
+            futures[i] = es.submit(() -> {
+                started.countDown();
+                return singleFlight.execute("cache:shop:1", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "shop";
+                }, 5, TimeUnit.SECONDS);
+            });
+        }
+        started.await();
+        // 等待所有线程进入等待状态后再释放加载
+        Thread.sleep(200);
+        release.countDown();
+        for (Future<?> future : futures) {
+            assertEquals("shop", future.get());
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.inFlightCount());
+        es.shutdown();
+    }
+
+    @Test
+    void testFollowerTimeout() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        es.submit(() -> singleFlight.execute("k", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        }, 1, TimeUnit.SECONDS));
+        while (singleFlight.inFlightCount() == 0) {
+            Thread.sleep(1);
+        }
+        assertThrows(TimeoutException.class, () -> singleFlight.execute("k", () -> 2, 50, TimeUnit.MILLISECONDS));
+        release.countDown();
+        es.shutdown();
+    }
+
+    @Test
+    void testLoaderExceptionPropagates() {
+        SingleFlight singleFlight = new SingleFlight();
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("k", () -> {
+            throw new IllegalStateException("db down");
+        }, 1, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils.codec;
+
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static com.hmdp.utils.constants.RedisConstants.CACHE_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSerializerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final CacheSerializer binary = new CacheSerializer(objectMapper, "binary");
+    private final CacheSerializer json = new CacheSerializer(objectMapper, "json");
+
+    @Test
+    void testRoundTrip() {
+        Shop shop = newShop();
+        byte[] bytes = binary.serialize(CACHE_SHOP_KEY + 1, shop);
+        assertEquals(BinaryCacheCodec.VERSION, bytes[0]);
+        assertEquals(shop, binary.deserialize(bytes, Shop.class));
+
+        // 两种格式可以互相读取
+        assertEquals(shop, json.deserialize(bytes, Shop.class));
+        assertEquals(shop, binary.deserialize(json.serialize(CACHE_SHOP_KEY + 1, shop), Shop.class));
+        // 兼容旧的hutool格式
+        byte[] legacy = JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+        assertEquals(shop.getName(), binary.deserialize(legacy, Shop.class).getName());
+    }
+
+    @Test
+    void testLogicalRoundTrip() {
+        Shop shop = newShop();
+        LocalDateTime expireTime = LocalDateTime.of(2030, 1, 1, 12, 30, 0, 123000000);
+        for (CacheSerializer serializer : new CacheSerializer[]{binary, json}) {
+            byte[] bytes = serializer.serializeLogical(CACHE_SHOP_KEY + 1, shop, expireTime, 35);
+            RedisData redisData = binary.deserializeLogical(bytes, Shop.class);
+            assertNotNull(redisData);
+            assertEquals(shop, redisData.getData());
+            assertEquals(expireTime, redisData.getExpireTime());
+            assertEquals(35L, redisData.getRebuildCost());
+        }
+    }
+
+    @Test
+    void testLegacyLogicalWithoutRebuildCost() {
+        Shop shop = newShop();
+        LocalDateTime expireTime = LocalDateTime.of(2030, 1, 1, 12, 30);
+        byte[] data = binary.serialize(CACHE_SHOP_KEY + 1, shop);
+        byte[] legacy = ByteBuffer.allocate(9 + data.length)
+                .put(CacheSerializer.LEGACY_LOGICAL_VERSION)
+                .putLong(expireTime.toInstant(ZoneOffset.UTC).toEpochMilli())
+                .put(data)
+                .array();
+        RedisData redisData = binary.deserializeLogical(legacy, Shop.class);
+        assertNotNull(redisData);
+        assertEquals(shop, redisData.getData());
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(0L, redisData.getRebuildCost());
+    }
+
+    @Test
+    void testSizeAndSpeed() {
+        Shop shop = newShop();
+        byte[] binaryBytes = binary.serialize(CACHE_SHOP_KEY + 1, shop);
+        byte[] jsonBytes = json.serialize(CACHE_SHOP_KEY + 1, shop);
+        System.out.println("binary size = " + binaryBytes.length + ", json size = " + jsonBytes.length);
+        assertTrue(binaryBytes.length < jsonBytes.length);
+
+        int rounds = 200000;
+        // 预热
+        for (int i = 0; i < rounds; i++) {
+            binary.deserialize(binaryBytes, Shop.class);
+            json.deserialize(jsonBytes, Shop.class);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            binary.deserialize(binaryBytes, Shop.class);
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            json.deserialize(jsonBytes, Shop.class);
+        }
+        long t3 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JSONUtil.toBean(new String(jsonBytes, StandardCharsets.UTF_8), Shop.class);
+        }
+        long t4 = System.nanoTime();
+        System.out.println("binary decode ns/op = " + (t2 - t1) / rounds);
+        System.out.println("jackson decode ns/op = " + (t3 - t2) / rounds);
+        System.out.println("hutool decode ns/op = " + (t4 - t3) / rounds);
+    }
+
+    @Test
+    void testUnsupportedTypeFallsBackToJson() {
+        RedisData redisData = new RedisData();
+        redisData.setData("x");
+        byte[] bytes = binary.serialize("cache:other:1", redisData);
+        assertEquals('{', bytes[0]);
+    }
+
+    private Shop newShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
@@ -0,0 +1,44 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.utils.seckill.OrderStatusStore.Status;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderStatusStoreTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetChecksOwner() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> ops = mock(HashOperations.class);
+        when(redisTemplate.opsForHash()).thenReturn(ops);
+        long orderId = 1L << 40;
+        String key = OrderStatusStore.key(orderId);
+        when(ops.multiGet(eq(key), anyCollection())).thenReturn(Arrays.asList(null, null));
+        OrderStatusStore store = new OrderStatusStore();
+        ReflectionTestUtils.setField(store, "stringRedisTemplate", redisTemplate);
+
+        // 没有下单记录
+        assertEquals(Status.NOT_FOUND, store.get(orderId, 7L));
+
+        // 自己的订单还没有落库
+        when(ops.multiGet(key, Arrays.asList(orderId + ":user", String.valueOf(orderId))))
+                .thenReturn(Arrays.asList("7", null));
+        assertEquals(Status.PENDING, store.get(orderId, 7L));
+        // 其他用户的订单
+        assertEquals(Status.NOT_FOUND, store.get(orderId, 8L));
+
+        when(ops.multiGet(key, Arrays.asList(orderId + ":user", String.valueOf(orderId))))
+                .thenReturn(Arrays.asList("7", "CREATED"));
+        assertEquals(Status.CREATED, store.get(orderId, 7L));
+        assertEquals(Status.NOT_FOUND, store.get(orderId, 8L));
+    }
+}
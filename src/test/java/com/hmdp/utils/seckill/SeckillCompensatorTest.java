@@ -0,0 +1,54 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.dto.SeckillMessage;
+import com.hmdp.service.IVoucherOrderService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SeckillCompensatorTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCompensateOneScriptPerSegment() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+        IVoucherOrderService voucherOrderService = mock(IVoucherOrderService.class);
+        when(voucherOrderService.listByIds(anyCollection())).thenReturn(Collections.emptyList());
+        SegmentedStock segmentedStock = mock(SegmentedStock.class);
+        when(segmentedStock.segments(1L)).thenReturn(2);
+        when(segmentedStock.segments(2L)).thenReturn(1);
+        SeckillCompensator compensator = new SeckillCompensator();
+        ReflectionTestUtils.setField(compensator, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(compensator, "voucherOrderService", voucherOrderService);
+        ReflectionTestUtils.setField(compensator, "segmentedStock", segmentedStock);
+        ReflectionTestUtils.setField(compensator, "seckillStateTable", mock(SeckillStateTable.class));
+        ReflectionTestUtils.setField(compensator, "orderStatusStore", mock(OrderStatusStore.class));
+
+        // 用户1和3在券1的分段1，用户2在分段0，券2没有分段
+        long restored = compensator.compensate(Arrays.asList(
+                new SeckillMessage(1L, 1L, 101L),
+                new SeckillMessage(2L, 1L, 102L),
+                new SeckillMessage(3L, 1L, 103L),
+                new SeckillMessage(4L, 2L, 104L)));
+
+        assertEquals(3, restored);
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(Arrays.asList("seckill:compensated:{1_1}", "seckill:stock:{1_1}", "seckill:order:{1_1}")),
+                eq("101"), eq("1"), eq("103"), eq("3"));
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(Arrays.asList("seckill:compensated:{1_0}", "seckill:stock:{1_0}", "seckill:order:{1_0}")),
+                eq("102"), eq("2"));
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(Arrays.asList("seckill:compensated:2", "seckill:stock:2", "seckill:order:2")),
+                eq("104"), eq("4"));
+    }
+}
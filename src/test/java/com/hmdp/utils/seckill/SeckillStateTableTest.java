@@ -0,0 +1,74 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.config.KafkaConfig;
+import com.hmdp.dto.SeckillStateMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SeckillStateTableTest {
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = mock(KafkaTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        SettableListenableFuture<SendResult<String, Object>> future = new SettableListenableFuture<>();
+        future.set(null);
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(future);
+    }
+
+    @Test
+    void testRecordAndExpire() throws InterruptedException {
+        SeckillStateTable table = new SeckillStateTable(kafkaTemplate, meterRegistry, 100, 100, 100);
+        // 下单成功和重复下单不记录状态
+        table.record(1L, 0);
+        table.record(1L, 2);
+        assertNull(table.rejectReason(1L));
+
+        // 售罄只广播一次
+        table.record(1L, 1);
+        table.record(1L, 1);
+        assertEquals("库存不足", table.rejectReason(1L));
+        verify(kafkaTemplate, times(1)).send(eq(KafkaConfig.SECKILL_STATE_TOPIC), eq("1"), any());
+        // 广播走正常的发送路径，没有失败
+        assertEquals(0, meterRegistry.counter("seckill.state.broadcast.failures").count());
+
+        // 失效后重新由Lua脚本判断
+        Thread.sleep(150);
+        assertNull(table.rejectReason(1L));
+    }
+
+    @Test
+    void testApplyBroadcast() {
+        SeckillStateTable table = new SeckillStateTable(kafkaTemplate, meterRegistry, 10000, 10000, 10000);
+        long expireAt = System.currentTimeMillis() + 10000;
+        table.apply(new SeckillStateMessage(2L, "ENDED", expireAt));
+        assertEquals("秒杀已经结束", table.rejectReason(2L));
+        // 其他节点广播的清除
+        table.apply(new SeckillStateMessage(2L, null, null));
+        assertNull(table.rejectReason(2L));
+        verifyNoInteractions(kafkaTemplate);
+    }
+
+    @Test
+    void testBroadcastFailureCounted() {
+        SettableListenableFuture<SendResult<String, Object>> future = new SettableListenableFuture<>();
+        future.setException(new RuntimeException("broker不可用"));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(future);
+        SeckillStateTable table = new SeckillStateTable(kafkaTemplate, meterRegistry, 10000, 10000, 10000);
+        table.record(3L, 1);
+        // 广播失败不影响本节点的状态
+        assertEquals("库存不足", table.rejectReason(3L));
+        assertEquals(1, meterRegistry.counter("seckill.state.broadcast.failures").count());
+    }
+}
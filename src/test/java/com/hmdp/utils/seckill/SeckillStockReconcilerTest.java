@@ -0,0 +1,71 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.dto.SeckillStockSnapshot;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SeckillStockReconcilerTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRepairSegmentedVoucherPerSegment() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        // 分段0的库存key丢失，分段1库存3，两个分段共3个用户
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(Arrays.asList(null, 2L, "3", 1L));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(4L);
+
+        SeckillStockSnapshot snapshot = new SeckillStockSnapshot();
+        snapshot.setVoucherId(1L);
+        snapshot.setStock(5);
+        snapshot.setOrderCount(2L);
+        snapshot.setBeginTime(LocalDateTime.now().minusHours(1));
+        snapshot.setEndTime(LocalDateTime.now().plusHours(1));
+        SeckillVoucherMapper mapper = mock(SeckillVoucherMapper.class);
+        when(mapper.queryStockSnapshot(anyLong(), any(LocalDateTime.class), anyInt()))
+                .thenReturn(Collections.singletonList(snapshot));
+        SegmentedStock segmentedStock = mock(SegmentedStock.class);
+        when(segmentedStock.segments(1L)).thenReturn(2);
+        SeckillStateTable stateTable = mock(SeckillStateTable.class);
+
+        SeckillStockReconciler reconciler = new SeckillStockReconciler();
+        ReflectionTestUtils.setField(reconciler, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(reconciler, "seckillVoucherMapper", mapper);
+        ReflectionTestUtils.setField(reconciler, "segmentedStock", segmentedStock);
+        ReflectionTestUtils.setField(reconciler, "seckillStateTable", stateTable);
+        ReflectionTestUtils.setField(reconciler, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(reconciler, "enabled", true);
+        ReflectionTestUtils.setField(reconciler, "repair", true);
+        ReflectionTestUtils.setField(reconciler, "pageSize", 200);
+        ReflectionTestUtils.setField(reconciler, "lockSeconds", 60L);
+        reconciler.init();
+
+        // 第一轮只记录偏差：3 + 3 - (5 + 2) = -1
+        reconciler.reconcile();
+        verify(redisTemplate, never()).execute(any(RedisScript.class), eq(Collections.singletonList("seckill:stock:{1_1}")), any());
+
+        // 第二轮偏差相同，每个分段单独修复：重建丢失的分段0，在库存最多的分段1补回1个库存
+        reconciler.reconcile();
+        verify(redisTemplate).execute(any(RedisScript.class), eq(Collections.singletonList("seckill:stock:{1_0}")),
+                eq("0"), anyString(), anyString());
+        verify(redisTemplate).execute(any(RedisScript.class), eq(Collections.singletonList("seckill:stock:{1_1}")),
+                eq("1"), anyString(), anyString());
+        verify(stateTable).clear(1L);
+    }
+}
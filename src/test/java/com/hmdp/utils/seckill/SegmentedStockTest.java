@@ -0,0 +1,127 @@
+package com.hmdp.utils.seckill;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SegmentedStockTest {
+
+    private static final Long VOUCHER_ID = 1L;
+    private static final int SEGMENTS = 4;
+
+    /**
+     * 内存中的分段库存和已下单集合，秒杀和借库存脚本按Lua脚本的语义执行
+     */
+    private final Map<String, Long> stocks = new HashMap<>();
+    private final Map<String, Set<String>> orders = new HashMap<>();
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+    private SegmentedStock segmentedStock;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(valueOps.get(anyString())).thenReturn(String.valueOf(SEGMENTS));
+        when(redisTemplate.opsForHash()).thenReturn(hashOps);
+        when(hashOps.increment(anyString(), eq("stock"), anyLong()))
+                .thenAnswer(inv -> stocks.merge(inv.getArgument(0), inv.<Long>getArgument(2), Long::sum));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenAnswer(inv -> {
+            RedisScript<?> script = inv.getArgument(0);
+            List<String> keys = inv.getArgument(1);
+            String arg = inv.getArgument(2);
+            if (script.getScriptAsString().contains("sismember")) {
+                return seckill(keys.get(0), keys.get(1), arg);
+            }
+            return borrow(keys.get(0), Long.parseLong(arg));
+        });
+        segmentedStock = new SegmentedStock();
+        ReflectionTestUtils.setField(segmentedStock, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(segmentedStock, "borrowSize", 10);
+        for (int i = 0; i < SEGMENTS; i++) {
+            stocks.put(SegmentedStock.stockKey(VOUCHER_ID, i), 0L);
+        }
+    }
+
+    @Test
+    void testSeckillInHomeSegment() {
+        Long userId = 7L;
+        int home = SegmentedStock.segmentOf(userId, SEGMENTS);
+        stocks.put(SegmentedStock.stockKey(VOUCHER_ID, home), 1L);
+
+        assertEquals(0, segmentedStock.seckill(VOUCHER_ID, userId, SEGMENTS));
+        assertEquals(0L, stocks.get(SegmentedStock.stockKey(VOUCHER_ID, home)));
+        // 一人一单在分段内判断
+        assertEquals(2, segmentedStock.seckill(VOUCHER_ID, userId, SEGMENTS));
+    }
+
+    @Test
+    void testBorrowFromOtherSegment() {
+        Long userId = 7L;
+        int home = SegmentedStock.segmentOf(userId, SEGMENTS);
+        String donor = SegmentedStock.stockKey(VOUCHER_ID, (home + 2) % SEGMENTS);
+        stocks.put(donor, 25L);
+
+        assertEquals(0, segmentedStock.seckill(VOUCHER_ID, userId, SEGMENTS));
+        // 借了borrow-size个，用掉一个，剩下的留在本分段
+        assertEquals(15L, stocks.get(donor));
+        assertEquals(9L, stocks.get(SegmentedStock.stockKey(VOUCHER_ID, home)));
+        assertTrue(orders.get(SegmentedStock.orderKey(VOUCHER_ID, home)).contains(userId.toString()));
+    }
+
+    @Test
+    void testSoldOutWhenNoSegmentCanLend() {
+        assertEquals(1, segmentedStock.seckill(VOUCHER_ID, 7L, SEGMENTS));
+        assertEquals(0L, stocks.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    void testCreditFailureReturnsStockToDonor() {
+        Long userId = 7L;
+        int home = SegmentedStock.segmentOf(userId, SEGMENTS);
+        String homeKey = SegmentedStock.stockKey(VOUCHER_ID, home);
+        String donor = SegmentedStock.stockKey(VOUCHER_ID, (home + 1) % SEGMENTS);
+        stocks.put(donor, 5L);
+        when(hashOps.increment(eq(homeKey), eq("stock"), anyLong())).thenThrow(new RuntimeException("连接断开"));
+
+        assertThrows(RuntimeException.class, () -> segmentedStock.seckill(VOUCHER_ID, userId, SEGMENTS));
+        // 借出的库存归还，总库存不变
+        assertEquals(5L, stocks.get(donor));
+        assertEquals(0L, stocks.get(homeKey));
+    }
+
+    private long seckill(String stockKey, String orderKey, String userId) {
+        Set<String> users = orders.computeIfAbsent(orderKey, k -> new HashSet<>());
+        if (users.contains(userId)) {
+            return 2;
+        }
+        if (stocks.get(stockKey) <= 0) {
+            return 1;
+        }
+        stocks.merge(stockKey, -1L, Long::sum);
+        users.add(userId);
+        return 0;
+    }
+
+    private long borrow(String donor, long max) {
+        long stock = stocks.get(donor);
+        if (stock <= 0) {
+            return 0;
+        }
+        long n = Math.min(stock, max);
+        stocks.put(donor, stock - n);
+        return n;
+    }
+}